@@ -0,0 +1,231 @@
+package push22bitwig;
+
+import push22bitwig.metrics.MetricsServer;
+import push22bitwig.model.DisplayModel;
+import push22bitwig.protocol.MessageHandler;
+import push22bitwig.protocol.StreamReceiver;
+import push22bitwig.protocol.UDPReceiver;
+import push22bitwig.stream.FrameStreamServer;
+import push22bitwig.util.PropertiesEx;
+
+import org.usb4java.LibUsbException;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Runs the display without a user interface. The UDP receiption, the drawing of the virtual
+ * display and the transfer to the USB display are wired up without starting the JavaFX toolkit.
+ * The display is updated by its own frame loop. The settings are read from the same configuration
+ * file as the one of the display emulator but are never written.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class DisplayDaemon
+{
+    // Same keys as used by the display emulator
+    private static final String            TAG_PORT                 = "PORT";
+    private static final String            TAG_RENDER_RGB565        = "RENDER_RGB565";
+    private static final String            TAG_GARBAGE_FREE_PARSING = "GARBAGE_FREE_PARSING";
+    private static final String            TAG_STREAM_SOCKET        = "STREAM_SOCKET";
+    private static final String            TAG_STREAM_PORT          = "STREAM_PORT";
+    private static final String            TAG_FRAME_STREAM_ADDRESS = "FRAME_STREAM_ADDRESS";
+    private static final String            TAG_FRAME_STREAM_PORT    = "FRAME_STREAM_PORT";
+    private static final String            TAG_METRICS_ADDRESS      = "METRICS_ADDRESS";
+    private static final String            TAG_METRICS_PORT         = "METRICS_PORT";
+    // Only used by the daemon
+    private static final String            TAG_FRAME_RATE           = "FRAME_RATE";
+
+    private final DisplayModel             displayModel             = new DisplayModel (true);
+    private final LayoutSettings           layoutSettings           = new LayoutSettings ();
+    private final VirtualDisplay           virtualDisplay           = new VirtualDisplay (this.displayModel, this.layoutSettings);
+    private final DisplayMirror            displayMirror            = new DisplayMirror (this.displayModel);
+    private final MessageHandler           messageHandler           = new MessageHandler (this.displayModel);
+    private final UDPReceiver              udpReceiver              = new UDPReceiver (this.displayModel, this.messageHandler);
+    private final StreamReceiver           socketReceiver           = new StreamReceiver (this.displayModel, this.messageHandler);
+    private final StreamReceiver           tcpReceiver              = new StreamReceiver (this.displayModel, this.messageHandler);
+    private final FrameStreamServer        frameStreamServer        = new FrameStreamServer (this.displayModel);
+    private final MetricsServer            metricsServer            = new MetricsServer (this.displayModel.getMetrics ());
+    private final PropertiesEx             properties               = new PropertiesEx ();
+    private final ScheduledExecutorService frameLoop                = Executors.newSingleThreadScheduledExecutor (r -> new Thread (r, "Frame Loop"));
+
+    private int                            port                     = 7000;
+    private String                         streamSocket             = "";
+    private int                            streamPort               = 0;
+    private String                         frameStreamAddress       = "127.0.0.1";
+    private int                            frameStreamPort          = 0;
+    private String                         metricsAddress           = "127.0.0.1";
+    private int                            metricsPort              = 0;
+    private int                            frameRate                = 60;
+
+
+    /**
+     * Constructor.
+     *
+     * @param configFilename The name of the configuration file to read
+     */
+    public DisplayDaemon (final String configFilename)
+    {
+        this.loadConfig (new File (configFilename));
+    }
+
+
+    /**
+     * Start the UDP and stream receiption, connect to the display and start the frame loop. Registers a
+     * shutdown hook, which stops everything again.
+     */
+    public void start ()
+    {
+        this.displayModel.addShutdownListener ( (observable, oldValue, newValue) -> this.stop ());
+        Runtime.getRuntime ().addShutdownHook (new Thread (this::stop));
+
+        this.udpReceiver.start (this.port);
+        if (!this.streamSocket.isEmpty ())
+            this.socketReceiver.startUnixDomainSocket (Paths.get (this.streamSocket));
+        if (this.streamPort > 0)
+            this.tcpReceiver.startTCP (this.streamPort);
+        if (this.frameStreamPort > 0)
+            this.frameStreamServer.start (this.frameStreamAddress, this.frameStreamPort);
+        if (this.metricsPort > 0)
+            this.startMetricsServer ();
+
+        try
+        {
+            this.displayMirror.connect (USBDisplay.connectAll (this.displayModel.getMetrics ()));
+            this.displayModel.addLogMessage ("Connected to " + this.displayMirror.getDisplayCount () + " display(s).");
+        }
+        catch (final LibUsbException ex)
+        {
+            this.displayModel.addLogMessage (ex.getLocalizedMessage ());
+        }
+
+        this.virtualDisplay.redrawGrid ();
+        this.frameLoop.scheduleAtFixedRate (this::updateDisplay, 0, 1000000L / this.frameRate, TimeUnit.MICROSECONDS);
+        this.displayModel.addLogMessage ("Running headless with " + this.frameRate + " frames per second.");
+    }
+
+
+    /**
+     * Stops the frame loop, the UDP and stream receiption and disconnects from the display.
+     */
+    public synchronized void stop ()
+    {
+        if (this.frameLoop.isShutdown ())
+            return;
+
+        this.displayModel.addLogMessage ("Stopping...");
+        this.frameLoop.shutdown ();
+        try
+        {
+            this.frameLoop.awaitTermination (1, TimeUnit.SECONDS);
+        }
+        catch (final InterruptedException ex)
+        {
+            Thread.currentThread ().interrupt ();
+        }
+
+        this.udpReceiver.stop ();
+        this.socketReceiver.stop ();
+        this.tcpReceiver.stop ();
+        this.frameStreamServer.stop ();
+        this.metricsServer.stop ();
+        try
+        {
+            this.displayMirror.disconnect ();
+        }
+        catch (final LibUsbException ex)
+        {
+            this.displayModel.addLogMessage (ex.getLocalizedMessage ());
+        }
+    }
+
+
+    /**
+     * Start the HTTP endpoint which serves the metrics.
+     */
+    private void startMetricsServer ()
+    {
+        try
+        {
+            this.metricsServer.start (this.metricsAddress, this.metricsPort);
+            this.displayModel.addLogMessage ("Serving metrics on http://" + this.metricsAddress + ":" + this.metricsPort + "/metrics.");
+        }
+        catch (final IOException ex)
+        {
+            this.displayModel.addLogMessage ("Could not start metrics server: " + ex.getLocalizedMessage ());
+        }
+    }
+
+
+    /**
+     * Animates the VU meters and sends the current image of the virtual display to the device and
+     * the frame stream clients.
+     */
+    private void updateDisplay ()
+    {
+        try
+        {
+            this.virtualDisplay.updateVuMeters ();
+            final BufferedImage image = this.virtualDisplay.getImage ();
+            final long sequence = this.virtualDisplay.getImageSequence ();
+            this.displayMirror.send (image, sequence);
+            this.frameStreamServer.publish (image, sequence);
+        }
+        catch (final RuntimeException ex)
+        {
+            // Keep the loop running, an exception would cancel all further executions
+            this.displayModel.addLogMessage ("Could not send frame: " + ex.getLocalizedMessage ());
+        }
+    }
+
+
+    /**
+     * Load the settings from the config file.
+     *
+     * @param configFile The configuration file
+     */
+    private void loadConfig (final File configFile)
+    {
+        if (!configFile.exists ())
+        {
+            this.displayModel.addLogMessage ("No configuration found at " + configFile.getAbsolutePath () + ", using defaults.");
+            this.virtualDisplay.setRGB565 (true);
+            this.messageHandler.setGarbageFree (true);
+            return;
+        }
+
+        try (final FileReader reader = new FileReader (configFile))
+        {
+            this.properties.load (reader);
+        }
+        catch (final IOException ex)
+        {
+            this.displayModel.addLogMessage (ex.getLocalizedMessage ());
+        }
+
+        this.layoutSettings.load (this.properties);
+        this.port = this.properties.getInt (TAG_PORT, 7000);
+        // The stream transports are off by default
+        this.streamSocket = this.properties.getString (TAG_STREAM_SOCKET, "");
+        this.streamPort = this.properties.getInt (TAG_STREAM_PORT, 0);
+        // The frame stream server is off by default and only accepts local clients
+        this.frameStreamAddress = this.properties.getString (TAG_FRAME_STREAM_ADDRESS, "127.0.0.1");
+        this.frameStreamPort = this.properties.getInt (TAG_FRAME_STREAM_PORT, 0);
+        // The metrics endpoint is off by default and only accepts local requests
+        this.metricsAddress = this.properties.getString (TAG_METRICS_ADDRESS, "127.0.0.1");
+        this.metricsPort = this.properties.getInt (TAG_METRICS_PORT, 0);
+        this.frameRate = Math.max (1, this.properties.getInt (TAG_FRAME_RATE, 60));
+        // There is no preview, therefore draw directly in the format of the device by default
+        this.virtualDisplay.setRGB565 (this.properties.getBoolean (TAG_RENDER_RGB565, true));
+        this.messageHandler.setGarbageFree (this.properties.getBoolean (TAG_GARBAGE_FREE_PARSING, true));
+    }
+}
@@ -1,7 +1,11 @@
 package push22bitwig;
 
+import push22bitwig.metrics.MetricsServer;
 import push22bitwig.model.DisplayModel;
+import push22bitwig.protocol.MessageHandler;
+import push22bitwig.protocol.StreamReceiver;
 import push22bitwig.protocol.UDPReceiver;
+import push22bitwig.stream.FrameStreamServer;
 import push22bitwig.util.FontCache;
 import push22bitwig.util.OperatingSystem;
 import push22bitwig.util.PropertiesEx;
@@ -15,7 +19,6 @@ import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.collections.ObservableList;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
@@ -30,6 +33,8 @@ import javafx.scene.control.Label;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
@@ -44,11 +49,13 @@ import javafx.stage.WindowEvent;
 import java.awt.Font;
 import java.awt.GraphicsEnvironment;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.ResourceBundle;
 
 
@@ -61,15 +68,16 @@ import java.util.ResourceBundle;
  */
 public class DisplayEmulator extends Application
 {
-    private static final String          TAG_TEXT_FONT               = "TEXT_FONT";
-    private static final String          TAG_TEXT_COLOR              = "TEXT_COLOR";
-    private static final String          TAG_BACKGROUND_COLOR        = "BACKGROUND_COLOR";
-    private static final String          TAG_BORDER_COLOR            = "TAG_BORDER_COLOR";
-    private static final String          TAG_FADER_COLOR             = "TAG_FADER_COLOR";
-    private static final String          TAG_VU_COLOR                = "TAG_VU_COLOR";
-    private static final String          TAG_EDIT_COLOR              = "TAG_EDIT_COLOR";
     private static final String          TAG_PORT                    = "PORT";
     private static final String          TAG_PREVIEW                 = "PREVIEW";
+    private static final String          TAG_RENDER_RGB565           = "RENDER_RGB565";
+    private static final String          TAG_GARBAGE_FREE_PARSING    = "GARBAGE_FREE_PARSING";
+    private static final String          TAG_STREAM_SOCKET           = "STREAM_SOCKET";
+    private static final String          TAG_STREAM_PORT             = "STREAM_PORT";
+    private static final String          TAG_FRAME_STREAM_ADDRESS    = "FRAME_STREAM_ADDRESS";
+    private static final String          TAG_FRAME_STREAM_PORT       = "FRAME_STREAM_PORT";
+    private static final String          TAG_METRICS_ADDRESS         = "METRICS_ADDRESS";
+    private static final String          TAG_METRICS_PORT            = "METRICS_PORT";
     private static final String          TAG_BITWIG_COMMAND          = "BITWIG_COMMAND";
     private static final String          TAG_RUN_AUTOMATICALLY       = "RUN_AUTOMATICALLY";
 
@@ -87,10 +95,15 @@ public class DisplayEmulator extends Application
 
     private File                         configFile                  = null;
 
-    public UDPReceiver                   udpReceiver                 = new UDPReceiver (this.displayModel);
+    private final MessageHandler         messageHandler              = new MessageHandler (this.displayModel);
+    public UDPReceiver                   udpReceiver                 = new UDPReceiver (this.displayModel, this.messageHandler);
+    private final StreamReceiver         socketReceiver              = new StreamReceiver (this.displayModel, this.messageHandler);
+    private final StreamReceiver         tcpReceiver                 = new StreamReceiver (this.displayModel, this.messageHandler);
+    private final FrameStreamServer      frameStreamServer           = new FrameStreamServer (this.displayModel);
+    private final MetricsServer          metricsServer               = new MetricsServer (this.displayModel.getMetrics ());
     private final LayoutSettings         layoutSettings              = new LayoutSettings ();
     private final VirtualDisplay         virtualDisplay              = new VirtualDisplay (this.displayModel, this.layoutSettings);
-    private final USBDisplay             usbDisplay                  = new USBDisplay ();
+    private final DisplayMirror          displayMirror               = new DisplayMirror (this.displayModel);
     private final Canvas                 canvas                      = new Canvas ();
     private final TextArea               loggingTextArea             = new TextArea ();
     private final TextField              applicationCommand          = new TextField ();
@@ -99,7 +112,16 @@ public class DisplayEmulator extends Application
     protected Stage                      stage;
 
     private int                          port                        = 7000;
+    private String                       streamSocket                = "";
+    private int                          streamPort                  = 0;
+    private String                       frameStreamAddress          = "127.0.0.1";
+    private int                          frameStreamPort             = 0;
+    private String                       metricsAddress              = "127.0.0.1";
+    private int                          metricsPort                 = 0;
     private boolean                      enablePreview               = true;
+    private WritableImage                previewImage;
+    private int []                       previewPixels;
+    private long                         previewGeneration           = -1;
 
     private double                       minWidth                    = 960;
     private double                       minHeight                   = 160;
@@ -122,16 +144,38 @@ public class DisplayEmulator extends Application
 
 
     /**
-     * Startup the display cycle, the UDP receiption and connect to the display.
+     * Startup the display cycle, the UDP receiption, the frame stream and metrics servers and
+     * connect to the display.
      */
     protected void startup ()
     {
         this.startDisplayUpdate ();
         this.startUDPReceiver ();
+        if (this.frameStreamPort > 0)
+            this.frameStreamServer.start (this.frameStreamAddress, this.frameStreamPort);
+        if (this.metricsPort > 0)
+            this.startMetricsServer ();
         this.connectToDisplay ();
     }
 
 
+    /**
+     * Start the HTTP endpoint which serves the metrics.
+     */
+    private void startMetricsServer ()
+    {
+        try
+        {
+            this.metricsServer.start (this.metricsAddress, this.metricsPort);
+            this.displayModel.addLogMessage ("Serving metrics on http://" + this.metricsAddress + ":" + this.metricsPort + "/metrics.");
+        }
+        catch (final IOException ex)
+        {
+            this.displayModel.addLogMessage ("Could not start metrics server: " + ex.getLocalizedMessage ());
+        }
+    }
+
+
     /**
      * Start update display cycle.
      */
@@ -149,13 +193,14 @@ public class DisplayEmulator extends Application
 
 
     /**
-     * Connect to display via USB.
+     * Connect to the displays of all attached Push 2 via USB.
      */
     protected void connectToDisplay ()
     {
         try
         {
-            this.usbDisplay.connect ();
+            this.displayMirror.connect (USBDisplay.connectAll (this.displayModel.getMetrics ()));
+            this.displayModel.addLogMessage ("Connected to " + this.displayMirror.getDisplayCount () + " display(s).");
         }
         catch (final LibUsbException ex)
         {
@@ -165,11 +210,15 @@ public class DisplayEmulator extends Application
 
 
     /**
-     * Start the UDP receiver.
+     * Start the UDP receiver and the stream receivers if configured.
      */
     protected void startUDPReceiver ()
     {
         this.udpReceiver.start (this.port);
+        if (!this.streamSocket.isEmpty ())
+            this.socketReceiver.startUnixDomainSocket (Paths.get (this.streamSocket));
+        if (this.streamPort > 0)
+            this.tcpReceiver.startTCP (this.streamPort);
     }
 
 
@@ -213,6 +262,19 @@ public class DisplayEmulator extends Application
         leftChildren.add (resetButton);
         resetButton.setMinWidth (200);
 
+        final Button logTimingButton = new Button ("Log Timing");
+        logTimingButton.setOnAction (e -> {
+            this.displayModel.addLogMessage (this.displayModel.getMetrics ().formatSummary ());
+            this.displayModel.addLogMessage ("Icon tint cache: " + IconAtlas.getCacheStatistics ());
+        });
+        leftChildren.add (logTimingButton);
+        logTimingButton.setMinWidth (200);
+
+        final Button exportTimingButton = new Button ("Export Timing...");
+        exportTimingButton.setOnAction (e -> this.exportTiming ());
+        leftChildren.add (exportTimingButton);
+        exportTimingButton.setMinWidth (200);
+
         // The DAW executable path
         this.centerGridPane = new GridPane ();
         this.centerGridPane.getStyleClass ().add ("grid");
@@ -255,7 +317,10 @@ public class DisplayEmulator extends Application
         final BorderPane optionsPane = new BorderPane (centerPart, null, null, null, leftGridPane);
 
         final CheckBox enablePreviewBox = new CheckBox ();
-        enablePreviewBox.setOnAction (e -> this.enablePreview = enablePreviewBox.isSelected ());
+        enablePreviewBox.setOnAction (e -> {
+            this.enablePreview = enablePreviewBox.isSelected ();
+            this.previewGeneration = -1;
+        });
         enablePreviewBox.setSelected (this.enablePreview);
         final Label previewLabel = new Label ("Preview");
         previewLabel.setLabelFor (enablePreviewBox);
@@ -288,7 +353,6 @@ public class DisplayEmulator extends Application
 
         this.layoutSettings.getTextColorProperty ().addListener ((ChangeListener<java.awt.Color>) (observable, oldValue, newValue) -> {
             textColorButton.valueProperty ().set (toFXColor (newValue));
-            SVGImage.clearCache ();
         });
         this.layoutSettings.getBackgroundColorProperty ().addListener ((ChangeListener<java.awt.Color>) (observable, oldValue, newValue) -> {
             backgroundColorButton.valueProperty ().set (toFXColor (newValue));
@@ -337,7 +401,11 @@ public class DisplayEmulator extends Application
 
         this.displayModel.addLogMessage ("Stopping UDP...");
         this.udpReceiver.stop ();
-        this.usbDisplay.disconnect ();
+        this.socketReceiver.stop ();
+        this.tcpReceiver.stop ();
+        this.frameStreamServer.stop ();
+        this.metricsServer.stop ();
+        this.displayMirror.disconnect ();
 
         super.stop ();
     }
@@ -348,12 +416,38 @@ public class DisplayEmulator extends Application
      */
     void updateDisplay ()
     {
+        this.virtualDisplay.updateVuMeters ();
         final BufferedImage image = this.virtualDisplay.getImage ();
-        this.usbDisplay.send (image);
-        if (!this.enablePreview)
+        final long generation = this.virtualDisplay.getImageSequence ();
+        this.displayMirror.send (image, generation);
+        this.frameStreamServer.publish (image, generation);
+        if (!this.enablePreview || generation == this.previewGeneration)
             return;
+        this.previewGeneration = generation;
+
+        // On high resolution screens draw the preview in the resolution of the screen instead of
+        // scaling up the image of the device
+        final int scale = Math.min (IconAtlas.MAX_SCALE, (int) Math.ceil (this.stage.getOutputScaleX ()));
+        final BufferedImage previewSource = scale > 1 ? this.virtualDisplay.drawPreview (scale) : image;
+
+        final int width = previewSource.getWidth ();
+        final int height = previewSource.getHeight ();
+        if (this.previewImage == null || (int) this.previewImage.getWidth () != width)
+        {
+            this.previewImage = new WritableImage (width, height);
+            this.previewPixels = new int [width * height];
+        }
+
+        // ARGB images can be handed over directly, others (RGB565) need to be converted
+        final int [] pixels;
+        if (previewSource.getType () == BufferedImage.TYPE_INT_ARGB)
+            pixels = ((DataBufferInt) previewSource.getRaster ().getDataBuffer ()).getData ();
+        else
+            pixels = previewSource.getRGB (0, 0, width, height, this.previewPixels, 0, width);
+        this.previewImage.getPixelWriter ().setPixels (0, 0, width, height, PixelFormat.getIntArgbInstance (), pixels, 0, width);
+
         final GraphicsContext gc = this.canvas.getGraphicsContext2D ();
-        gc.drawImage (SwingFXUtils.toFXImage (image, null), 0, 0, this.canvas.getWidth (), this.canvas.getWidth () / 6);
+        gc.drawImage (this.previewImage, 0, 0, this.canvas.getWidth (), this.canvas.getWidth () / 6);
     }
 
 
@@ -435,48 +529,22 @@ public class DisplayEmulator extends Application
 
                 this.properties.restoreStagePlacement (this.stage);
 
-                // Text font
-                final String textFont = this.properties.getString (TAG_TEXT_FONT);
-                if (textFont != null)
-                    this.layoutSettings.setTextFont (textFont);
-
-                // Text color
-                final int textColor = this.properties.getInt (TAG_TEXT_COLOR);
-                if (textColor != -1)
-                    this.layoutSettings.setTextColor (new java.awt.Color (textColor));
-
-                // Background color
-                final int backgroundColor = this.properties.getInt (TAG_BACKGROUND_COLOR);
-                if (backgroundColor != -1)
-                    this.layoutSettings.setBackgroundColor (new java.awt.Color (backgroundColor));
-
-                // Border color
-                final int borderColor = this.properties.getInt (TAG_BORDER_COLOR);
-                if (borderColor != -1)
-                    this.layoutSettings.setBorderColor (new java.awt.Color (borderColor));
-
-                // Fader color
-                final int faderColor = this.properties.getInt (TAG_FADER_COLOR);
-                if (faderColor != -1)
-                    this.layoutSettings.setFaderColor (new java.awt.Color (faderColor));
-
-                // VU color
-                final int vuColor = this.properties.getInt (TAG_VU_COLOR);
-                if (vuColor != -1)
-                    this.layoutSettings.setVuColor (new java.awt.Color (vuColor));
-
-                // Edit color
-                final int editColor = this.properties.getInt (TAG_EDIT_COLOR);
-                if (editColor != -1)
-                    this.layoutSettings.setEditColor (new java.awt.Color (editColor));
+                // Text font and colors
+                this.layoutSettings.load (this.properties);
 
                 // Other settings
                 this.port = this.properties.getInt (TAG_PORT, 7000);
                 this.enablePreview = this.properties.getBoolean (TAG_PREVIEW, true);
+                this.virtualDisplay.setRGB565 (this.properties.getBoolean (TAG_RENDER_RGB565, false));
+                this.messageHandler.setGarbageFree (this.properties.getBoolean (TAG_GARBAGE_FREE_PARSING, false));
+                this.streamSocket = this.properties.getString (TAG_STREAM_SOCKET, "");
+                this.streamPort = this.properties.getInt (TAG_STREAM_PORT, 0);
+                this.frameStreamAddress = this.properties.getString (TAG_FRAME_STREAM_ADDRESS, "127.0.0.1");
+                this.frameStreamPort = this.properties.getInt (TAG_FRAME_STREAM_PORT, 0);
+                this.metricsAddress = this.properties.getString (TAG_METRICS_ADDRESS, "127.0.0.1");
+                this.metricsPort = this.properties.getInt (TAG_METRICS_PORT, 0);
                 this.applicationCommand.setText (this.properties.getString (TAG_BITWIG_COMMAND, this.getDefaultApplicationPath ()));
                 this.runAutomatically.setSelected (this.properties.getBoolean (TAG_RUN_AUTOMATICALLY, true));
-
-                SVGImage.clearCache ();
             }
             catch (final IOException ex)
             {
@@ -542,16 +610,18 @@ public class DisplayEmulator extends Application
     {
         this.properties.storeStagePlacement (this.stage);
 
-        this.properties.putString (TAG_TEXT_FONT, this.layoutSettings.getTextFont ().getFamily ());
-        this.properties.putInt (TAG_TEXT_COLOR, this.layoutSettings.getTextColor ().getRGB ());
-        this.properties.putInt (TAG_BACKGROUND_COLOR, this.layoutSettings.getBackgroundColor ().getRGB ());
-        this.properties.putInt (TAG_BORDER_COLOR, this.layoutSettings.getBorderColor ().getRGB ());
-        this.properties.putInt (TAG_FADER_COLOR, this.layoutSettings.getFaderColor ().getRGB ());
-        this.properties.putInt (TAG_VU_COLOR, this.layoutSettings.getVuColor ().getRGB ());
-        this.properties.putInt (TAG_EDIT_COLOR, this.layoutSettings.getEditColor ().getRGB ());
+        this.layoutSettings.store (this.properties);
 
         this.properties.putInt (TAG_PORT, this.port);
         this.properties.putBoolean (TAG_PREVIEW, this.enablePreview);
+        this.properties.putBoolean (TAG_RENDER_RGB565, this.virtualDisplay.isRGB565 ());
+        this.properties.putBoolean (TAG_GARBAGE_FREE_PARSING, this.messageHandler.isGarbageFree ());
+        this.properties.putString (TAG_STREAM_SOCKET, this.streamSocket);
+        this.properties.putInt (TAG_STREAM_PORT, this.streamPort);
+        this.properties.putString (TAG_FRAME_STREAM_ADDRESS, this.frameStreamAddress);
+        this.properties.putInt (TAG_FRAME_STREAM_PORT, this.frameStreamPort);
+        this.properties.putString (TAG_METRICS_ADDRESS, this.metricsAddress);
+        this.properties.putInt (TAG_METRICS_PORT, this.metricsPort);
         this.properties.putString (TAG_BITWIG_COMMAND, this.applicationCommand.getText ());
         this.properties.putBoolean (TAG_RUN_AUTOMATICALLY, this.runAutomatically.isSelected ());
 
@@ -619,6 +689,30 @@ public class DisplayEmulator extends Application
     }
 
 
+    /**
+     * Export the timing of the display pipeline to a CSV file.
+     */
+    private void exportTiming ()
+    {
+        final FileChooser chooser = new FileChooser ();
+        chooser.setTitle ("Export the timing of the display pipeline");
+        chooser.getExtensionFilters ().add (new ExtensionFilter ("CSV", "*.csv"));
+
+        final File file = chooser.showSaveDialog (this.stage);
+        if (file == null)
+            return;
+
+        try (final FileWriter writer = new FileWriter (file))
+        {
+            this.displayModel.getMetrics ().writeCSV (writer);
+        }
+        catch (final IOException ex)
+        {
+            this.displayModel.addLogMessage ("Could not export timing: " + ex.getLocalizedMessage ());
+        }
+    }
+
+
     /**
      * Start the DAW.
      */
@@ -0,0 +1,300 @@
+package push22bitwig;
+
+import push22bitwig.model.DisplayModel;
+
+import org.usb4java.LibUsbException;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Shows the image of one virtual display on several USB displays. Each image is encoded only once
+ * and the encoded frame is shared by all displays. Every display has its own sender thread,
+ * therefore a slow or blocked device does not delay the others. If a device cannot keep up, it
+ * skips the frames which were replaced before it was ready and continues with the latest one.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class DisplayMirror
+{
+    private final DisplayModel       model;
+    private final FrameEncoder       encoder;
+    private volatile List<Sender>    senders        = Collections.emptyList ();
+
+    /** The encoded frames, a frame is reused when no sender transfers it anymore. */
+    private final List<EncodedFrame> frames         = new ArrayList<> ();
+    private EncodedFrame             latestFrame;
+    private long                     latestSequence = -1;
+    private final Object             frameLock      = new Object ();
+
+
+    /**
+     * Constructor.
+     *
+     * @param model Where to log and to record the timing of encoding
+     */
+    public DisplayMirror (final DisplayModel model)
+    {
+        this.model = model;
+        this.encoder = new FrameEncoder (model.getMetrics ());
+    }
+
+
+    /**
+     * Start sending to the given displays. Already connected displays are disconnected.
+     *
+     * @param displays The connected displays
+     */
+    public synchronized void connect (final List<USBDisplay> displays)
+    {
+        this.disconnect ();
+
+        final List<Sender> newSenders = new ArrayList<> (displays.size ());
+        for (int i = 0; i < displays.size (); i++)
+        {
+            final Sender sender = new Sender (displays.get (i), i + 1);
+            sender.thread = new Thread (sender, "USB Sender " + sender.number);
+            sender.thread.start ();
+            newSenders.add (sender);
+        }
+        this.senders = newSenders;
+    }
+
+
+    /**
+     * Get the number of connected displays.
+     *
+     * @return The number
+     */
+    public int getDisplayCount ()
+    {
+        return this.senders.size ();
+    }
+
+
+    /**
+     * Send an image to all displays. The image is only encoded if the sequence differs from the
+     * one of the previous call, otherwise the previous frame is sent again. The transfer happens
+     * asynchronously in the sender threads. Must always be called from the same thread.
+     *
+     * @param image An image of size 960 x 160 pixel
+     * @param sequence The sequence number of the image, see
+     *            {@link VirtualDisplay#getImageSequence()}
+     */
+    public void send (final BufferedImage image, final long sequence)
+    {
+        final List<Sender> currentSenders = this.senders;
+        if (currentSenders.isEmpty ())
+            return;
+
+        if (sequence != this.latestSequence || this.latestFrame == null)
+        {
+            final EncodedFrame frame = this.acquireFreeFrame ();
+            this.encoder.encode (image, frame.buffer);
+            synchronized (this.frameLock)
+            {
+                this.latestFrame = frame;
+            }
+            this.latestSequence = sequence;
+        }
+
+        for (final Sender sender: currentSenders)
+            sender.signal ();
+    }
+
+
+    /**
+     * Stops the sender threads and disconnects all displays.
+     *
+     * @throws LibUsbException A display could not be disconnected properly
+     */
+    public synchronized void disconnect ()
+    {
+        final List<Sender> oldSenders = this.senders;
+        this.senders = Collections.emptyList ();
+        LibUsbException error = null;
+        for (final Sender sender: oldSenders)
+        {
+            try
+            {
+                sender.stop ();
+            }
+            catch (final LibUsbException ex)
+            {
+                // Disconnect the other displays anyway
+                error = ex;
+            }
+        }
+
+        synchronized (this.frameLock)
+        {
+            this.latestFrame = null;
+        }
+        this.latestSequence = -1;
+
+        if (error != null)
+            throw error;
+    }
+
+
+    /**
+     * Get a frame which is neither the latest one nor transfered by a sender. A new one is created
+     * if there is none, therefore there are at most two more frames than displays.
+     *
+     * @return The frame
+     */
+    private EncodedFrame acquireFreeFrame ()
+    {
+        synchronized (this.frameLock)
+        {
+            for (final EncodedFrame frame: this.frames)
+            {
+                if (frame.users == 0 && frame != this.latestFrame)
+                    return frame;
+            }
+            final EncodedFrame frame = new EncodedFrame ();
+            this.frames.add (frame);
+            return frame;
+        }
+    }
+
+
+    /**
+     * Get the latest frame and marks it as used.
+     *
+     * @return The frame or null if there is none yet
+     */
+    private EncodedFrame acquireLatestFrame ()
+    {
+        synchronized (this.frameLock)
+        {
+            final EncodedFrame frame = this.latestFrame;
+            if (frame != null)
+                frame.users++;
+            return frame;
+        }
+    }
+
+
+    /**
+     * Marks a frame as not used anymore by a sender.
+     *
+     * @param frame The frame
+     */
+    private void releaseFrame (final EncodedFrame frame)
+    {
+        synchronized (this.frameLock)
+        {
+            frame.users--;
+        }
+    }
+
+
+    /** An encoded frame and the number of senders which currently transfer it. */
+    private static final class EncodedFrame
+    {
+        final ByteBuffer buffer = FrameEncoder.createBuffer ();
+        int              users  = 0;
+    }
+
+
+    /** Transfers the latest frame to one display whenever it is signaled. */
+    private final class Sender implements Runnable
+    {
+        private final USBDisplay    display;
+        private final int           number;
+        private final AtomicBoolean isPending = new AtomicBoolean ();
+        private volatile boolean    isRunning = true;
+        private boolean             hasFailed = false;
+        private Thread              thread;
+
+
+        /**
+         * Constructor.
+         *
+         * @param display The display to send to
+         * @param number The number of the display, used for logging
+         */
+        Sender (final USBDisplay display, final int number)
+        {
+            this.display = display;
+            this.number = number;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void run ()
+        {
+            while (this.isRunning)
+            {
+                // Several signals while transfering result in only one more transfer
+                if (!this.isPending.getAndSet (false))
+                {
+                    LockSupport.park (this);
+                    continue;
+                }
+
+                final EncodedFrame frame = DisplayMirror.this.acquireLatestFrame ();
+                if (frame == null)
+                    continue;
+                try
+                {
+                    this.display.transfer (frame.buffer);
+                }
+                catch (final RuntimeException ex)
+                {
+                    // Keep the sender running, the next frame might succeed. Only the first
+                    // failure is logged, a broken device would fail with every frame
+                    if (!this.hasFailed)
+                    {
+                        this.hasFailed = true;
+                        DisplayMirror.this.model.addLogMessage ("Could not send to display " + this.number + ": " + ex.getLocalizedMessage ());
+                    }
+                }
+                finally
+                {
+                    DisplayMirror.this.releaseFrame (frame);
+                }
+            }
+        }
+
+
+        /**
+         * Wake up the sender to transfer the latest frame.
+         */
+        void signal ()
+        {
+            this.isPending.set (true);
+            LockSupport.unpark (this.thread);
+        }
+
+
+        /**
+         * Stops the thread, waits till the current transfer has finished and disconnects the
+         * display.
+         */
+        void stop ()
+        {
+            this.isRunning = false;
+            LockSupport.unpark (this.thread);
+            try
+            {
+                this.thread.join ();
+            }
+            catch (final InterruptedException ex)
+            {
+                Thread.currentThread ().interrupt ();
+            }
+            this.display.disconnect ();
+        }
+    }
+}
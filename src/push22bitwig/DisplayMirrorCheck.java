@@ -0,0 +1,259 @@
+package push22bitwig;
+
+import push22bitwig.metrics.PipelineStage;
+import push22bitwig.model.DisplayModel;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.DirectColorModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Checks the display mirror with simulated displays, which do not require a connected Push 2: a
+ * fast one, a slow one and one which fails with every transfer. Frames are sent faster than the
+ * slow display can transfer them. Each frame has all pixels set to its sequence number, therefore
+ * a transfered frame which was overwritten while being transfered is detected. Checks that:
+ *
+ * <ul>
+ * <li>each frame is encoded only once, even if it is sent several times,
+ * <li>no transfered frame is torn and each display receives the frames in order (a frame which is
+ * sent again is transfered again),
+ * <li>the slow display skips frames without delaying the fast one,
+ * <li>the failure of a display is logged only once and does not stop its sender.
+ * </ul>
+ *
+ * Prints the results and exits with 1 if a check failed.
+ *
+ * <pre>
+ * java push22bitwig.DisplayMirrorCheck [frames]
+ * </pre>
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class DisplayMirrorCheck
+{
+    private final List<String> failures = new ArrayList<> ();
+
+
+    /**
+     * Main function.
+     *
+     * @param args The optional number of frames to send (default 300)
+     */
+    public static void main (final String [] args)
+    {
+        final int frames = args.length > 0 ? Integer.parseInt (args[0]) : 300;
+        final boolean isSuccess = new DisplayMirrorCheck ().check (frames);
+        System.exit (isSuccess ? 0 : 1);
+    }
+
+
+    /**
+     * Sends the frames to the simulated displays and checks the results.
+     *
+     * @param frames The number of frames to send
+     * @return True if all checks succeeded
+     */
+    public boolean check (final int frames)
+    {
+        final LogModel model = new LogModel ();
+        final SimulatedDisplay fast = new SimulatedDisplay (model, 0, false);
+        final SimulatedDisplay slow = new SimulatedDisplay (model, 5, false);
+        final SimulatedDisplay failing = new SimulatedDisplay (model, 0, true);
+
+        final DisplayMirror mirror = new DisplayMirror (model);
+        mirror.connect (Arrays.asList (fast, slow, failing));
+
+        final DirectColorModel colorModel = new DirectColorModel (16, 0xF800, 0x07E0, 0x001F);
+        final WritableRaster raster = colorModel.createCompatibleWritableRaster (USBDisplay.DATA_SZ / 2 / USBDisplay.HEIGHT, USBDisplay.HEIGHT);
+        final BufferedImage image = new BufferedImage (colorModel, raster, false, null);
+        final short [] pixels = ((DataBufferUShort) raster.getDataBuffer ()).getData ();
+
+        for (int sequence = 1; sequence <= frames; sequence++)
+        {
+            Arrays.fill (pixels, (short) sequence);
+            // The second call must not encode the frame again
+            mirror.send (image, sequence);
+            mirror.send (image, sequence);
+            LockSupport.parkNanos (1_000_000L);
+        }
+        // Let the slow display finish its last transfer
+        LockSupport.parkNanos (50_000_000L);
+        mirror.disconnect ();
+
+        final long encodes = model.getMetrics ().getHistogram (PipelineStage.ENCODE).getCount ();
+        System.out.println ("Frames: " + frames + ", encoded: " + encodes);
+        System.out.println ("Fast display: " + fast.getResult ());
+        System.out.println ("Slow display: " + slow.getResult ());
+        System.out.println ("Failing display: " + failing.transfers.get () + " attempts, " + model.errors.get () + " logged errors");
+
+        this.verify (encodes == frames, "Each frame must be encoded once, but " + encodes + " encodes for " + frames + " frames.");
+        for (final SimulatedDisplay display: Arrays.asList (fast, slow))
+        {
+            this.verify (display.tornFrames.get () == 0, display.tornFrames.get () + " torn frames.");
+            this.verify (display.reorderedFrames.get () == 0, display.reorderedFrames.get () + " frames out of order.");
+            this.verify (display.lastSequence == frames, "The last frame was not transfered, last sequence: " + display.lastSequence);
+        }
+        this.verify (slow.newFrames.get () < frames, "The slow display did not skip frames.");
+        this.verify (fast.newFrames.get () > slow.newFrames.get (), "The fast display was delayed by the slow one.");
+        this.verify (failing.transfers.get () > 1, "The sender of the failing display stopped.");
+        this.verify (model.errors.get () == 1, "The failing display must be logged once, but " + model.errors.get () + " messages.");
+
+        for (final String failure: this.failures)
+            System.out.println ("FAILED: " + failure);
+        if (this.failures.isEmpty ())
+            System.out.println ("OK");
+        return this.failures.isEmpty ();
+    }
+
+
+    /**
+     * Records a failure if the condition is not met.
+     *
+     * @param condition The condition
+     * @param message The message of the failure
+     */
+    private void verify (final boolean condition, final String message)
+    {
+        if (!condition)
+            this.failures.add (message);
+    }
+
+
+    /** A model which counts the logged transfer errors. */
+    private static final class LogModel extends DisplayModel
+    {
+        final AtomicInteger errors = new AtomicInteger ();
+
+
+        /**
+         * Constructor.
+         */
+        LogModel ()
+        {
+            super (true);
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public synchronized void addLogMessage (final String message)
+        {
+            if (message.startsWith ("Could not send to display"))
+                this.errors.incrementAndGet ();
+            super.addLogMessage (message);
+        }
+    }
+
+
+    /** A display which checks the transfered frames instead of sending them via USB. */
+    private static final class SimulatedDisplay extends USBDisplay
+    {
+        final AtomicInteger   transfers       = new AtomicInteger ();
+        final AtomicInteger   newFrames       = new AtomicInteger ();
+        final AtomicInteger   tornFrames      = new AtomicInteger ();
+        final AtomicInteger   reorderedFrames = new AtomicInteger ();
+        volatile int          lastSequence    = 0;
+
+        private final int     delayMillis;
+        private final boolean isFailing;
+
+
+        /**
+         * Constructor.
+         *
+         * @param model The model with the metrics
+         * @param delayMillis The duration of a transfer in milliseconds
+         * @param isFailing True if every transfer fails
+         */
+        SimulatedDisplay (final DisplayModel model, final int delayMillis, final boolean isFailing)
+        {
+            super (model.getMetrics ());
+            this.delayMillis = delayMillis;
+            this.isFailing = isFailing;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void transfer (final ByteBuffer frame)
+        {
+            this.transfers.incrementAndGet ();
+            if (this.isFailing)
+                throw new IllegalStateException ("Simulated transfer error");
+
+            // Read the frame before and after the transfer time, it must not change meanwhile
+            final int sequence = readSequence (frame);
+            // Not parked, the sender thread is unparked by each new frame
+            if (this.delayMillis > 0)
+            {
+                try
+                {
+                    Thread.sleep (this.delayMillis);
+                }
+                catch (final InterruptedException ex)
+                {
+                    Thread.currentThread ().interrupt ();
+                }
+            }
+            if (sequence < 0 || readSequence (frame) != sequence)
+            {
+                this.tornFrames.incrementAndGet ();
+                return;
+            }
+            // A repeated send of the same sequence transfers the frame again
+            if (sequence < this.lastSequence)
+                this.reorderedFrames.incrementAndGet ();
+            else if (sequence > this.lastSequence)
+                this.newFrames.incrementAndGet ();
+            this.lastSequence = sequence;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void disconnect ()
+        {
+            // Nothing to release
+        }
+
+
+        /**
+         * Get the formatted results.
+         *
+         * @return The results
+         */
+        String getResult ()
+        {
+            return this.transfers.get () + " transfers of " + this.newFrames.get () + " different frames, " + this.tornFrames.get () + " torn, " + this.reorderedFrames.get () + " out of order, last sequence " + this.lastSequence;
+        }
+
+
+        /**
+         * Reads the sequence number from an encoded frame. The encoder swaps red and blue, which
+         * is undone.
+         *
+         * @param frame The encoded frame
+         * @return The sequence number or -1 if not all pixels are equal
+         */
+        private static int readSequence (final ByteBuffer frame)
+        {
+            final short first = frame.getShort (0);
+            for (int i = 2; i < frame.capacity (); i += 2)
+            {
+                if (frame.getShort (i) != first)
+                    return -1;
+            }
+            return first & 0x07E0 | first >> 11 & 0x001F | (first & 0x001F) << 11;
+        }
+    }
+}
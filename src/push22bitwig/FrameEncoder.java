@@ -0,0 +1,125 @@
+package push22bitwig;
+
+import push22bitwig.metrics.FrameEncodedEvent;
+import push22bitwig.metrics.PipelineMetrics;
+import push22bitwig.metrics.PipelineStage;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/**
+ * Encodes the image of the virtual display into the format of the USB transfer of the Push 2
+ * display. The encoding is independent from the device, therefore one encoded frame can be sent to
+ * several devices. Not thread safe.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class FrameEncoder
+{
+    private final PipelineMetrics metrics;
+
+
+    /**
+     * Constructor.
+     *
+     * @param metrics Where to record the timing of the encoding
+     */
+    public FrameEncoder (final PipelineMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+
+    /**
+     * Creates a buffer which can hold one encoded frame.
+     *
+     * @return The direct buffer
+     */
+    public static ByteBuffer createBuffer ()
+    {
+        return ByteBuffer.allocateDirect (USBDisplay.DATA_SZ).order (ByteOrder.LITTLE_ENDIAN);
+    }
+
+
+    /**
+     * Encode the image into the transfer buffer. If the image is a RGB565 image drawn by the
+     * virtual display (see {@link VirtualDisplay#setRGB565(boolean)}) it is already in the line
+     * layout of the device and only the red and blue channels need to be swapped.
+     *
+     * @param image An image of size 960 x 160 pixel
+     * @param buffer The buffer to fill, see {@link #createBuffer()}
+     */
+    public void encode (final BufferedImage image, final ByteBuffer buffer)
+    {
+        final FrameEncodedEvent event = new FrameEncodedEvent ();
+        event.begin ();
+        final long start = System.nanoTime ();
+        final boolean isRGB565 = image.getType () == BufferedImage.TYPE_USHORT_565_RGB && image.getRaster ().getDataBuffer ().getSize () == USBDisplay.DATA_SZ / 2;
+        if (isRGB565)
+            encodeRGB565 (((DataBufferUShort) image.getRaster ().getDataBuffer ()).getData (), buffer);
+        else
+            encodeARGB (((DataBufferInt) image.getRaster ().getDataBuffer ()).getData (), buffer);
+        this.metrics.record (PipelineStage.ENCODE, start, System.nanoTime ());
+        event.end ();
+        if (event.shouldCommit ())
+        {
+            event.bytes = USBDisplay.DATA_SZ;
+            event.isRGB565 = isRGB565;
+            event.commit ();
+        }
+    }
+
+
+    /**
+     * Fills the transfer buffer from 32 bit ARGB pixels.
+     *
+     * @param pixels The pixels, 960 x 160
+     * @param buffer The buffer to fill
+     */
+    private static void encodeARGB (final int [] pixels, final ByteBuffer buffer)
+    {
+        buffer.clear ();
+        for (int y = 0; y < USBDisplay.HEIGHT; y++)
+        {
+            for (int x = 0; x < USBDisplay.WIDTH; x++)
+            {
+                final int pixel = pixels[x + y * USBDisplay.WIDTH];
+                final int red = ((pixel & 0x00FF0000) >> 16) * 31 / 255;
+                final int green = ((pixel & 0x0000FF00) >> 8) * 63 / 255;
+                final int blue = (pixel & 0x000000FF) * 31 / 255;
+
+                // 3b(low) green - 5b red / 5b blue - 3b (high) green, e.g. gggRRRRR BBBBBGGG
+                buffer.put ((byte) ((green & 0x07) << 5 | red & 0x1F));
+                buffer.put ((byte) ((blue & 0x1F) << 3 | (green & 0x38) >> 3));
+            }
+            for (int x = 0; x < 128; x++)
+                buffer.put ((byte) 0x00);
+        }
+    }
+
+
+    /**
+     * Fills the transfer buffer from 16 bit RGB565 pixels which are already padded to the line
+     * width of the device. The device expects BGR565 in little endian order, therefore only red
+     * and blue need to be exchanged.
+     *
+     * @param pixels The pixels, 1024 x 160
+     * @param buffer The buffer to fill
+     */
+    private static void encodeRGB565 (final short [] pixels, final ByteBuffer buffer)
+    {
+        // The buffers are reused and might still be positioned at the end of an ARGB frame
+        buffer.clear ();
+        for (int i = 0; i < pixels.length; i++)
+        {
+            final int pixel = pixels[i];
+            buffer.putShort (2 * i, (short) (pixel & 0x07E0 | pixel >> 11 & 0x001F | (pixel & 0x001F) << 11));
+        }
+    }
+}
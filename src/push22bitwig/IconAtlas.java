@@ -0,0 +1,437 @@
+package push22bitwig;
+
+import push22bitwig.util.BoundedCache;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Stores the icons as alpha masks packed into one 8 bit atlas. Each icon is rasterized only once
+ * from its SVG file. A colored variant of an icon is an image which shares the pixels of the atlas
+ * and only uses a different color model which maps the alpha values to the requested color.
+ * Therefore, changing the color of an icon does neither require to transcode the SVG file again
+ * nor to copy any pixels.
+ *
+ * Icons are loaded in the background. Until an icon is loaded it is not available and the
+ * registered load listeners are notified when it becomes available, which should redraw the
+ * display. An icon which could not be loaded is reported once, afterwards it is not available.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class IconAtlas
+{
+    /** The maximum supported scale factor. */
+    public static final int                                          MAX_SCALE   = 4;
+
+    private static final int                                         ATLAS_WIDTH = 256;
+    private static final int                                         MAX_COLORS  = 64;
+
+    /** The loaded icons, one map per scale factor. */
+    private static final List<Map<String, CompletableFuture<Icon>>>  ICONS       = createIconMaps ();
+    /** Replaces the future of an icon which failed to load after the failure was reported. */
+    private static final CompletableFuture<Icon>                     MISSING     = CompletableFuture.completedFuture (null);
+    private static final BoundedCache<Color, IndexColorModel>        TINTS       = new BoundedCache<> (MAX_COLORS);
+    private static final List<Runnable>                              LISTENERS   = new CopyOnWriteArrayList<> ();
+    private static final ExecutorService                             LOADER      = Executors.newSingleThreadExecutor (IconAtlas::createLoaderThread);
+    private static final Object                                      ATLAS_LOCK  = new Object ();
+    private static final LongAdder                                   HITS        = new LongAdder ();
+    private static final LongAdder                                   MISSES      = new LongAdder ();
+
+    private static volatile WritableRaster                           atlas       = createRaster (ATLAS_WIDTH, 64);
+    private static int                                               shelfX      = 0;
+    private static int                                               shelfY      = 0;
+    private static int                                               shelfHeight = 0;
+
+
+    /**
+     * Private due to utility class.
+     */
+    private IconAtlas ()
+    {
+        // Intentionally empty
+    }
+
+
+    /**
+     * Add a listener which is notified each time an icon was loaded in the background (or failed
+     * to load).
+     *
+     * @param listener The listener
+     */
+    public static void addLoadListener (final Runnable listener)
+    {
+        LISTENERS.add (listener);
+    }
+
+
+    /**
+     * Get the statistics of the cache of the color models which tint the icons. Colors might come
+     * from the DAW, therefore only the 64 most recently used ones are kept.
+     *
+     * @return The formatted statistics
+     */
+    public static String getCacheStatistics ()
+    {
+        return TINTS.toString ();
+    }
+
+
+    /**
+     * Get the number of requested icons which were already available in the requested color.
+     *
+     * @return The number of hits
+     */
+    public static long getHitCount ()
+    {
+        return HITS.sum ();
+    }
+
+
+    /**
+     * Get the number of requested icons which were not loaded yet or had to be created in the
+     * requested color.
+     *
+     * @return The number of misses
+     */
+    public static long getMissCount ()
+    {
+        return MISSES.sum ();
+    }
+
+
+    /**
+     * Removes the colored variants of all icons for the given colors, e.g. after these colors have
+     * been replaced in the layout settings. The icons themselves are kept.
+     *
+     * @param colors The colors to remove
+     */
+    public static void removeColors (final Set<Color> colors)
+    {
+        if (colors.isEmpty ())
+            return;
+        TINTS.removeIf (colors::contains);
+        for (final Map<String, CompletableFuture<Icon>> icons: ICONS)
+        {
+            for (final CompletableFuture<Icon> future: icons.values ())
+            {
+                final Icon icon = future.getNow (null);
+                if (icon != null)
+                    icon.images.removeIf (colors::contains);
+            }
+        }
+    }
+
+
+    /**
+     * Get an icon in the given color. The SVG image is expected to be monochrome: 1 color and a
+     * transparent background. Never blocks: if the icon is not loaded yet, loading is started in
+     * the background and null is returned.
+     *
+     * @param imageName The name (absolute path) of the SVG image
+     * @param color The color of the icon
+     * @return The icon or null if it is not loaded yet
+     * @throws IOException Could not load the image
+     */
+    public static BufferedImage getIcon (final String imageName, final Color color) throws IOException
+    {
+        return getIcon (imageName, color, 1);
+    }
+
+
+    /**
+     * Get an icon in the given color and rendered with the given scale factor. Width and height of
+     * the icon are its intrinsic size multiplied by the scale. Never blocks: if the icon is not
+     * loaded yet, loading is started in the background and null is returned.
+     *
+     * @param imageName The name (absolute path) of the SVG image
+     * @param color The color of the icon
+     * @param scale The scale factor, 1 to {@link #MAX_SCALE}
+     * @return The icon or null if it is not loaded yet
+     * @throws IOException Could not load the image
+     */
+    public static BufferedImage getIcon (final String imageName, final Color color, final int scale) throws IOException
+    {
+        final Map<String, CompletableFuture<Icon>> icons = ICONS.get (scale - 1);
+        CompletableFuture<Icon> future = icons.get (imageName);
+        if (future == null)
+        {
+            // Loading is only started by the call which added the future, outside of the map
+            // update since the listeners might request icons as well
+            final CompletableFuture<Icon> loading = new CompletableFuture<> ();
+            future = icons.putIfAbsent (imageName, loading);
+            if (future == null)
+            {
+                future = loading;
+                startLoading (loading, imageName, scale);
+            }
+        }
+        if (!future.isDone ())
+        {
+            MISSES.increment ();
+            return null;
+        }
+
+        try
+        {
+            final Icon icon = future.join ();
+            if (icon == null)
+            {
+                MISSES.increment ();
+                return null;
+            }
+            final BufferedImage image = icon.images.getIfPresent (color);
+            if (image != null)
+            {
+                HITS.increment ();
+                return image;
+            }
+            MISSES.increment ();
+            return icon.getImage (color);
+        }
+        catch (final CompletionException ex)
+        {
+            // Report the failure only once, afterwards the icon is treated as missing
+            if (!icons.replace (imageName, future, MISSING))
+                return null;
+            final Throwable cause = ex.getCause ();
+            throw cause instanceof IOException ? (IOException) cause : new IOException (cause);
+        }
+    }
+
+
+    /**
+     * Starts loading an icon in the background. The listeners are notified on the loader thread
+     * when it is done, never on the thread which requested the icon.
+     *
+     * @param future The future to complete with the icon
+     * @param imageName The name (absolute path) of the SVG image
+     * @param scale The scale factor
+     */
+    private static void startLoading (final CompletableFuture<Icon> future, final String imageName, final int scale)
+    {
+        LOADER.execute ( () -> {
+            try
+            {
+                future.complete (addIcon (imageName, scale));
+            }
+            catch (final IOException | RuntimeException | Error ex)
+            {
+                // Otherwise the icon would stay in loading forever
+                future.completeExceptionally (ex);
+            }
+            LISTENERS.forEach (Runnable::run);
+        });
+    }
+
+
+    /**
+     * Creates the background thread which loads the icons.
+     *
+     * @param runnable The runnable to execute
+     * @return The thread
+     */
+    private static Thread createLoaderThread (final Runnable runnable)
+    {
+        final Thread thread = new Thread (runnable, "Icon Loader");
+        thread.setDaemon (true);
+        return thread;
+    }
+
+
+    /**
+     * Creates the maps for the icons of all scale factors.
+     *
+     * @return The maps, the index is the scale factor - 1
+     */
+    private static List<Map<String, CompletableFuture<Icon>>> createIconMaps ()
+    {
+        final List<Map<String, CompletableFuture<Icon>>> maps = new ArrayList<> (MAX_SCALE);
+        for (int i = 0; i < MAX_SCALE; i++)
+            maps.add (new ConcurrentHashMap<> ());
+        return maps;
+    }
+
+
+    /**
+     * Adds the alpha mask of an icon to the atlas.
+     *
+     * @param imageName The name (absolute path) of the SVG image
+     * @param scale The scale factor
+     * @return The added icon
+     * @throws IOException Could not load the image
+     */
+    private static Icon addIcon (final String imageName, final int scale) throws IOException
+    {
+        IconMask mask = loadMask (imageName);
+        if (scale > 1)
+        {
+            // Render the SVG image again with the scaled intrinsic size
+            final BufferedImage image = new SVGImage (imageName, Color.WHITE, scale * mask.getWidth (), scale * mask.getHeight ()).getImage ();
+            mask = IconMask.fromImage (image);
+        }
+        final int width = mask.getWidth ();
+        final int height = mask.getHeight ();
+
+        synchronized (ATLAS_LOCK)
+        {
+            // Start a new shelf if the icon does not fit in the current one
+            if (shelfX + width > atlas.getWidth ())
+            {
+                shelfX = 0;
+                shelfY += shelfHeight;
+                shelfHeight = 0;
+            }
+            if (width > atlas.getWidth () || shelfY + height > atlas.getHeight ())
+                growAtlas (Math.max (width, atlas.getWidth ()), Math.max (shelfY + height, 2 * atlas.getHeight ()));
+
+            atlas.setDataElements (shelfX, shelfY, width, height, mask.getAlpha ());
+
+            final Icon icon = new Icon (shelfX, shelfY, width, height);
+            shelfX += width;
+            shelfHeight = Math.max (shelfHeight, height);
+            return icon;
+        }
+    }
+
+
+    /**
+     * Loads the alpha mask of an icon in its intrinsic size. The precompiled mask of a bundled icon
+     * is used if present, otherwise the SVG image is rasterized.
+     *
+     * @param imageName The name (absolute path) of the SVG image
+     * @return The mask
+     * @throws IOException Could not load the image
+     */
+    private static IconMask loadMask (final String imageName) throws IOException
+    {
+        final IconMask mask = IconMask.load (imageName);
+        return mask == null ? IconMask.fromImage (new SVGImage (imageName, Color.WHITE).getImage ()) : mask;
+    }
+
+
+    /**
+     * Replaces the atlas with a larger one, which contains the content of the current one.
+     *
+     * @param width The new width
+     * @param height The new height
+     */
+    private static void growAtlas (final int width, final int height)
+    {
+        final WritableRaster raster = createRaster (width, height);
+        raster.setRect (atlas);
+        atlas = raster;
+    }
+
+
+    /**
+     * Creates a 8 bit raster with 1 band.
+     *
+     * @param width The width of the raster
+     * @param height The height of the raster
+     * @return The raster
+     */
+    private static WritableRaster createRaster (final int width, final int height)
+    {
+        return Raster.createInterleavedRaster (DataBuffer.TYPE_BYTE, width, height, 1, null);
+    }
+
+
+    /**
+     * Create a color model which maps the 256 alpha values to the given color.
+     *
+     * @param color The color
+     * @return The color model
+     */
+    private static IndexColorModel createTint (final Color color)
+    {
+        final byte [] red = new byte [256];
+        final byte [] green = new byte [256];
+        final byte [] blue = new byte [256];
+        final byte [] alpha = new byte [256];
+        for (int i = 0; i < 256; i++)
+        {
+            red[i] = (byte) color.getRed ();
+            green[i] = (byte) color.getGreen ();
+            blue[i] = (byte) color.getBlue ();
+            alpha[i] = (byte) (i * color.getAlpha () / 255);
+        }
+        return new IndexColorModel (8, 256, red, green, blue, alpha);
+    }
+
+
+    /**
+     * An icon in the atlas.
+     */
+    private static class Icon
+    {
+        private final int                                x;
+        private final int                                y;
+        private final int                                width;
+        private final int                                height;
+        private final BoundedCache<Color, BufferedImage> images = new BoundedCache<> (MAX_COLORS);
+
+
+        /**
+         * Constructor.
+         *
+         * @param x The horizontal position in the atlas
+         * @param y The vertical position in the atlas
+         * @param width The width of the icon
+         * @param height The height of the icon
+         */
+        Icon (final int x, final int y, final int width, final int height)
+        {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+
+        /**
+         * Get the icon in the given color. The image shares the pixels of the atlas. The images
+         * are kept, since Java2D draws a known image faster than a new one.
+         *
+         * @param color The color of the icon
+         * @return The image
+         * @throws IOException Could not create the image
+         */
+        BufferedImage getImage (final Color color) throws IOException
+        {
+            return this.images.get (color, this::createImage);
+        }
+
+
+        /**
+         * Create the image of the icon in the given color.
+         *
+         * @param color The color of the icon
+         * @return The image
+         * @throws IOException Could not create the tint
+         */
+        private BufferedImage createImage (final Color color) throws IOException
+        {
+            final WritableRaster region = atlas.createWritableChild (this.x, this.y, this.width, this.height, 0, 0, null);
+            return new BufferedImage (TINTS.get (color, IconAtlas::createTint), region, false, null);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package push22bitwig;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * The alpha mask of a monochrome icon. Masks of the bundled SVG icons are created during the build
+ * and stored next to the SVG file with the ending '.mask'. This allows to load the bundled icons
+ * without Batik.
+ *
+ * The format is: the characters 'P2M', the format version (1 byte), the width and height (2 bytes
+ * each, big endian) followed by the deflated alpha values (1 byte per pixel, line by line).
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class IconMask
+{
+    private static final byte [] MAGIC      = { 'P', '2', 'M', 1 };
+    private static final String  SVG_ENDING = ".svg";
+
+    private final int            width;
+    private final int            height;
+    private final byte []        alpha;
+
+
+    /**
+     * Constructor.
+     *
+     * @param width The width of the mask
+     * @param height The height of the mask
+     * @param alpha The alpha values, one byte per pixel
+     */
+    public IconMask (final int width, final int height, final byte [] alpha)
+    {
+        this.width = width;
+        this.height = height;
+        this.alpha = alpha;
+    }
+
+
+    /**
+     * Create a mask from the alpha channel of an image.
+     *
+     * @param image The image
+     * @return The mask
+     */
+    public static IconMask fromImage (final BufferedImage image)
+    {
+        final int width = image.getWidth ();
+        final int height = image.getHeight ();
+        final int [] argb = image.getRGB (0, 0, width, height, null, 0, width);
+        final byte [] alpha = new byte [argb.length];
+        for (int i = 0; i < argb.length; i++)
+            alpha[i] = (byte) (argb[i] >>> 24);
+        return new IconMask (width, height, alpha);
+    }
+
+
+    /**
+     * Get the name of the mask resource for a SVG image.
+     *
+     * @param imageName The name (absolute path) of the SVG image
+     * @return The name of the mask
+     */
+    public static String getMaskName (final String imageName)
+    {
+        final String name = imageName.endsWith (SVG_ENDING) ? imageName.substring (0, imageName.length () - SVG_ENDING.length ()) : imageName;
+        return name + ".mask";
+    }
+
+
+    /**
+     * Load the precompiled mask of a SVG image.
+     *
+     * @param imageName The name (absolute path) of the SVG image
+     * @return The mask or null if there is no precompiled mask for the image
+     * @throws IOException Could not read the mask
+     */
+    public static IconMask load (final String imageName) throws IOException
+    {
+        try (final InputStream in = IconMask.class.getResourceAsStream (getMaskName (imageName)))
+        {
+            return in == null ? null : read (in);
+        }
+    }
+
+
+    /**
+     * Read a mask.
+     *
+     * @param inputStream The stream to read from
+     * @return The mask
+     * @throws IOException Could not read the mask or it has an unknown format
+     */
+    public static IconMask read (final InputStream inputStream) throws IOException
+    {
+        final DataInputStream in = new DataInputStream (inputStream);
+        final byte [] magic = new byte [MAGIC.length];
+        in.readFully (magic);
+        for (int i = 0; i < MAGIC.length; i++)
+        {
+            if (magic[i] != MAGIC[i])
+                throw new IOException ("Not an icon mask or unsupported version.");
+        }
+        final int width = in.readUnsignedShort ();
+        final int height = in.readUnsignedShort ();
+        final byte [] alpha = new byte [width * height];
+        new DataInputStream (new InflaterInputStream (in)).readFully (alpha);
+        return new IconMask (width, height, alpha);
+    }
+
+
+    /**
+     * Write the mask.
+     *
+     * @param outputStream The stream to write to
+     * @throws IOException Could not write the mask
+     */
+    public void write (final OutputStream outputStream) throws IOException
+    {
+        final DataOutputStream out = new DataOutputStream (outputStream);
+        out.write (MAGIC);
+        out.writeShort (this.width);
+        out.writeShort (this.height);
+        final DeflaterOutputStream deflater = new DeflaterOutputStream (out, new Deflater (Deflater.BEST_COMPRESSION));
+        deflater.write (this.alpha);
+        deflater.finish ();
+        out.flush ();
+    }
+
+
+    /**
+     * Get the width of the mask.
+     *
+     * @return The width
+     */
+    public int getWidth ()
+    {
+        return this.width;
+    }
+
+
+    /**
+     * Get the height of the mask.
+     *
+     * @return The height
+     */
+    public int getHeight ()
+    {
+        return this.height;
+    }
+
+
+    /**
+     * Get the alpha values, one byte per pixel line by line.
+     *
+     * @return The alpha values
+     */
+    public byte [] getAlpha ()
+    {
+        return this.alpha;
+    }
+
+
+    /**
+     * Precompiles all SVG images in a folder and its sub-folders into masks. Called by the build.
+     *
+     * @param args The source folder and the destination folder
+     * @throws IOException Could not read an image or write a mask
+     */
+    public static void main (final String [] args) throws IOException
+    {
+        if (args.length != 2)
+        {
+            System.out.println ("Usage: IconMask <source folder> <destination folder>");
+            return;
+        }
+        compileFolder (new File (args[0]), new File (args[1]));
+    }
+
+
+    /**
+     * Precompiles all SVG images in a folder and its sub-folders into masks.
+     *
+     * @param source The folder with the SVG images
+     * @param destination The folder in which to store the masks with the same sub-folders
+     * @throws IOException Could not read an image or write a mask
+     */
+    private static void compileFolder (final File source, final File destination) throws IOException
+    {
+        final File [] files = source.listFiles ();
+        if (files == null)
+            return;
+        for (final File file: files)
+        {
+            final String name = file.getName ();
+            if (file.isDirectory ())
+            {
+                compileFolder (file, new File (destination, name));
+                continue;
+            }
+            if (!name.endsWith (SVG_ENDING))
+                continue;
+
+            final IconMask mask = fromImage (new SVGImage (file, Color.WHITE).getImage ());
+            if (!destination.exists () && !destination.mkdirs ())
+                throw new IOException ("Could not create folder " + destination);
+            try (final OutputStream out = new FileOutputStream (new File (destination, getMaskName (name))))
+            {
+                mask.write (out);
+            }
+        }
+    }
+}
@@ -1,12 +1,22 @@
 package push22bitwig;
 
 import push22bitwig.util.FontCache;
+import push22bitwig.util.PropertiesEx;
 
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.value.ChangeListener;
 
 import java.awt.Color;
 import java.awt.Font;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 
 /**
@@ -18,6 +28,14 @@ import java.awt.Font;
  */
 public class LayoutSettings
 {
+    private static final String                   TAG_TEXT_FONT            = "TEXT_FONT";
+    private static final String                   TAG_TEXT_COLOR           = "TEXT_COLOR";
+    private static final String                   TAG_BACKGROUND_COLOR     = "BACKGROUND_COLOR";
+    private static final String                   TAG_BORDER_COLOR         = "TAG_BORDER_COLOR";
+    private static final String                   TAG_FADER_COLOR          = "TAG_FADER_COLOR";
+    private static final String                   TAG_VU_COLOR             = "TAG_VU_COLOR";
+    private static final String                   TAG_EDIT_COLOR           = "TAG_EDIT_COLOR";
+
     private static final Color                    DEFAULT_COLOR_TEXT       = new Color (0xF2, 0xF2, 0xF2);
     private static final Color                    DEFAULT_COLOR_BACKGROUND = new Color (0x4D, 0x4D, 0x4D);
     private static final Color                    DEFAULT_COLOR_BORDER     = Color.BLACK;
@@ -25,7 +43,14 @@ public class LayoutSettings
     private static final Color                    DEFAULT_COLOR_VU         = Color.GREEN;
     private static final Color                    DEFAULT_COLOR_EDIT       = new Color (240, 127, 17);
 
+    private static final ExecutorService          FONT_LOADER              = Executors.newSingleThreadExecutor (LayoutSettings::createFontLoaderThread);
+
     private final SimpleObjectProperty<FontCache> textFontProperty         = new SimpleObjectProperty<> (new FontCache ());
+    /** The font used for drawing. Switches to the selected font after it has been prewarmed. */
+    private final SimpleObjectProperty<FontCache> activeTextFontProperty   = new SimpleObjectProperty<> (this.textFontProperty.get ());
+    private volatile FontCache                    activeTextFont           = this.textFontProperty.get ();
+    /** The snapshot of the current settings used for drawing. */
+    private volatile Theme                        theme;
     private final SimpleObjectProperty<Color>     textColorProperty        = new SimpleObjectProperty<> (DEFAULT_COLOR_TEXT);
     private final SimpleObjectProperty<Color>     backgroundColorProperty  = new SimpleObjectProperty<> (DEFAULT_COLOR_BACKGROUND);
     private final SimpleObjectProperty<Color>     borderColorProperty      = new SimpleObjectProperty<> (DEFAULT_COLOR_BORDER);
@@ -33,6 +58,140 @@ public class LayoutSettings
     private final SimpleObjectProperty<Color>     vuColorProperty          = new SimpleObjectProperty<> (DEFAULT_COLOR_VU);
     private final SimpleObjectProperty<Color>     editColorProperty        = new SimpleObjectProperty<> (DEFAULT_COLOR_EDIT);
 
+    private final List<LayoutChangeListener>      layoutChangeListeners    = new CopyOnWriteArrayList<> ();
+    private final Set<Color>                      changedColors            = new HashSet<> ();
+    private int                                   updateDepth              = 0;
+
+
+    /**
+     * Edits several settings at once, see {@link LayoutSettings#update(Consumer)}.
+     */
+    public interface Editor
+    {
+        /**
+         * Set a new font.
+         *
+         * @param fontName The name of the font, null for the default font
+         * @return The editor for chaining
+         */
+        Editor setTextFont (String fontName);
+
+
+        /**
+         * Set a new color for the text.
+         *
+         * @param color The new color
+         * @return The editor for chaining
+         */
+        Editor setTextColor (Color color);
+
+
+        /**
+         * Set a new background color.
+         *
+         * @param color The new color
+         * @return The editor for chaining
+         */
+        Editor setBackgroundColor (Color color);
+
+
+        /**
+         * Set a new border color.
+         *
+         * @param color The new color
+         * @return The editor for chaining
+         */
+        Editor setBorderColor (Color color);
+
+
+        /**
+         * Set a new fader color.
+         *
+         * @param color The new color
+         * @return The editor for chaining
+         */
+        Editor setFaderColor (Color color);
+
+
+        /**
+         * Set a new VU color.
+         *
+         * @param color The new color
+         * @return The editor for chaining
+         */
+        Editor setVuColor (Color color);
+
+
+        /**
+         * Set a new edit color.
+         *
+         * @param color The new color
+         * @return The editor for chaining
+         */
+        Editor setEditColor (Color color);
+    }
+
+
+    /**
+     * Gets informed once about all color changes of an update of the layout settings.
+     */
+    @FunctionalInterface
+    public interface LayoutChangeListener
+    {
+        /**
+         * The colors of the layout have changed.
+         *
+         * @param replacedColors The previous values of the changed colors which are no longer used
+         *            by any of the settings
+         */
+        void layoutChanged (Set<Color> replacedColors);
+    }
+
+
+    /**
+     * Constructor.
+     */
+    public LayoutSettings ()
+    {
+        this.textFontProperty.addListener ( (observable, oldValue, newValue) -> this.prewarmTextFont (newValue));
+        this.addColorChangeListener ( (observable, oldValue, newValue) -> this.colorChanged (oldValue));
+        this.updateTheme ();
+    }
+
+
+    /**
+     * Changes several settings at once. The layout change listeners are notified only once after
+     * all changes have been applied (and only if a color actually changed). Updates can be nested,
+     * the listeners are notified when the outermost update is finished.
+     *
+     * @param changes Applies the changes to the given editor
+     */
+    public void update (final Consumer<Editor> changes)
+    {
+        final LayoutEditor editor = new LayoutEditor ();
+        final Set<Color> replacedColors;
+        synchronized (this.changedColors)
+        {
+            // Raised before the changes are collected, since they can call update as well
+            this.updateDepth++;
+            try
+            {
+                changes.accept (editor);
+                editor.apply ();
+            }
+            finally
+            {
+                this.updateDepth--;
+            }
+            if (this.updateDepth > 0 || this.changedColors.isEmpty ())
+                return;
+            this.updateTheme ();
+            replacedColors = new HashSet<> (this.changedColors);
+            this.changedColors.clear ();
+        }
+        this.fireLayoutChanged (replacedColors);
+    }
+
 
     /**
      * Set a new font.
@@ -41,7 +200,7 @@ public class LayoutSettings
      */
     public void setTextFont (final String fontName)
     {
-        this.textFontProperty.set (new FontCache (fontName));
+        this.update (editor -> editor.setTextFont (fontName));
     }
 
 
@@ -64,7 +223,7 @@ public class LayoutSettings
      */
     public Font getTextFont (final int size)
     {
-        return this.textFontProperty.get ().getFont (size);
+        return this.activeTextFont.getFont (size);
     }
 
 
@@ -75,7 +234,19 @@ public class LayoutSettings
      */
     public void setTextColor (final Color textColor)
     {
-        this.textColorProperty.set (textColor);
+        this.update (editor -> editor.setTextColor (textColor));
+    }
+
+
+    /**
+     * Get the immutable snapshot of the current colors and font, which is used for drawing. A new
+     * snapshot is created on each change of the settings.
+     *
+     * @return The theme
+     */
+    public Theme getTheme ()
+    {
+        return this.theme;
     }
 
 
@@ -97,7 +268,7 @@ public class LayoutSettings
      */
     public void setBackgroundColor (final Color backgroundColor)
     {
-        this.backgroundColorProperty.set (backgroundColor);
+        this.update (editor -> editor.setBackgroundColor (backgroundColor));
     }
 
 
@@ -119,7 +290,7 @@ public class LayoutSettings
      */
     public void setBorderColor (final Color borderColor)
     {
-        this.borderColorProperty.set (borderColor);
+        this.update (editor -> editor.setBorderColor (borderColor));
     }
 
 
@@ -141,7 +312,7 @@ public class LayoutSettings
      */
     public void setFaderColor (final Color faderColor)
     {
-        this.faderColorProperty.set (faderColor);
+        this.update (editor -> editor.setFaderColor (faderColor));
     }
 
 
@@ -163,7 +334,7 @@ public class LayoutSettings
      */
     public void setVuColor (final Color vuColor)
     {
-        this.vuColorProperty.set (vuColor);
+        this.update (editor -> editor.setVuColor (vuColor));
     }
 
 
@@ -185,7 +356,7 @@ public class LayoutSettings
      */
     public void setEditColor (final Color editColor)
     {
-        this.editColorProperty.set (editColor);
+        this.update (editor -> editor.setEditColor (editColor));
     }
 
 
@@ -205,13 +376,136 @@ public class LayoutSettings
      */
     public void reset ()
     {
-        this.textFontProperty.set (new FontCache ());
-        this.textColorProperty.set (DEFAULT_COLOR_TEXT);
-        this.backgroundColorProperty.set (DEFAULT_COLOR_BACKGROUND);
-        this.borderColorProperty.set (DEFAULT_COLOR_BORDER);
-        this.faderColorProperty.set (DEFAULT_COLOR_FADER);
-        this.vuColorProperty.set (DEFAULT_COLOR_VU);
-        this.editColorProperty.set (DEFAULT_COLOR_EDIT);
+        this.update (editor -> editor.setTextFont (null).setTextColor (DEFAULT_COLOR_TEXT).setBackgroundColor (DEFAULT_COLOR_BACKGROUND).setBorderColor (DEFAULT_COLOR_BORDER).setFaderColor (DEFAULT_COLOR_FADER).setVuColor (DEFAULT_COLOR_VU).setEditColor (DEFAULT_COLOR_EDIT));
+    }
+
+
+    /**
+     * Load the font and color settings from the properties. Settings which are not present are
+     * not changed.
+     *
+     * @param properties The properties to load from
+     */
+    public void load (final PropertiesEx properties)
+    {
+        this.update (editor -> {
+            // Text font
+            final String textFont = properties.getString (TAG_TEXT_FONT);
+            if (textFont != null)
+                editor.setTextFont (textFont);
+
+            // Text color
+            final int textColor = properties.getInt (TAG_TEXT_COLOR);
+            if (textColor != -1)
+                editor.setTextColor (new Color (textColor));
+
+            // Background color
+            final int backgroundColor = properties.getInt (TAG_BACKGROUND_COLOR);
+            if (backgroundColor != -1)
+                editor.setBackgroundColor (new Color (backgroundColor));
+
+            // Border color
+            final int borderColor = properties.getInt (TAG_BORDER_COLOR);
+            if (borderColor != -1)
+                editor.setBorderColor (new Color (borderColor));
+
+            // Fader color
+            final int faderColor = properties.getInt (TAG_FADER_COLOR);
+            if (faderColor != -1)
+                editor.setFaderColor (new Color (faderColor));
+
+            // VU color
+            final int vuColor = properties.getInt (TAG_VU_COLOR);
+            if (vuColor != -1)
+                editor.setVuColor (new Color (vuColor));
+
+            // Edit color
+            final int editColor = properties.getInt (TAG_EDIT_COLOR);
+            if (editColor != -1)
+                editor.setEditColor (new Color (editColor));
+        });
+    }
+
+
+    /**
+     * Store the font and color settings in the properties.
+     *
+     * @param properties The properties to store to
+     */
+    public void store (final PropertiesEx properties)
+    {
+        properties.putString (TAG_TEXT_FONT, this.getTextFont ().getFamily ());
+        properties.putInt (TAG_TEXT_COLOR, this.getTextColor ().getRGB ());
+        properties.putInt (TAG_BACKGROUND_COLOR, this.getBackgroundColor ().getRGB ());
+        properties.putInt (TAG_BORDER_COLOR, this.getBorderColor ().getRGB ());
+        properties.putInt (TAG_FADER_COLOR, this.getFaderColor ().getRGB ());
+        properties.putInt (TAG_VU_COLOR, this.getVuColor ().getRGB ());
+        properties.putInt (TAG_EDIT_COLOR, this.getEditColor ().getRGB ());
+    }
+
+
+    /**
+     * Add a listener which gets informed once for each update of the layout colors. Several color
+     * changes applied with {@link #update(Consumer)} cause only one notification.
+     *
+     * @param listener The listener to register
+     */
+    public void addLayoutChangeListener (final LayoutChangeListener listener)
+    {
+        this.layoutChangeListeners.add (listener);
+    }
+
+
+    /**
+     * A color property has changed. Notifies the layout change listeners directly if the change
+     * was not part of an update.
+     *
+     * @param oldColor The previous color
+     */
+    private void colorChanged (final Color oldColor)
+    {
+        synchronized (this.changedColors)
+        {
+            if (this.updateDepth > 0)
+            {
+                this.changedColors.add (oldColor);
+                return;
+            }
+        }
+        this.updateTheme ();
+        this.fireLayoutChanged (Collections.singleton (oldColor));
+    }
+
+
+    /**
+     * Creates a new snapshot of the current settings. Synchronized since the font is swapped from
+     * a background thread, the last created snapshot must contain the latest colors and font.
+     */
+    private synchronized void updateTheme ()
+    {
+        this.theme = new Theme (this.activeTextFont, this.getTextColor (), this.getBackgroundColor (), this.getBorderColor (), this.getFaderColor (), this.getVuColor (), this.getEditColor ());
+    }
+
+
+    /**
+     * Notifies the layout change listeners.
+     *
+     * @param replacedColors The previous values of the changed colors, the ones which are still
+     *            used by another setting are not reported
+     */
+    private void fireLayoutChanged (final Set<Color> replacedColors)
+    {
+        final Set<Color> unusedColors = new HashSet<> (replacedColors);
+        unusedColors.remove (this.getTextColor ());
+        unusedColors.remove (this.getBackgroundColor ());
+        unusedColors.remove (this.getBorderColor ());
+        unusedColors.remove (this.getFaderColor ());
+        unusedColors.remove (this.getVuColor ());
+        unusedColors.remove (this.getEditColor ());
+
+        final Set<Color> unmodifiable = Collections.unmodifiableSet (unusedColors);
+        for (final LayoutChangeListener listener: this.layoutChangeListeners)
+            listener.layoutChanged (unmodifiable);
     }
 
 
@@ -293,18 +587,56 @@ public class LayoutSettings
 
 
     /**
-     * Add a listener which gets informed if a layout font changes.
+     * Add a listener which gets informed if the font used for drawing changes. This happens after
+     * a newly selected font has been prewarmed and is called from a background thread.
      *
      * @param listener The listener to register
      */
     public void addFontChangeListener (final ChangeListener<FontCache> listener)
     {
-        this.textFontProperty.addListener (listener);
+        this.activeTextFontProperty.addListener (listener);
+    }
+
+
+    /**
+     * Prewarms a newly selected font in the background with the sizes used by the current font and
+     * afterwards uses it for drawing. Therefore, the first frame drawn with the new font does not
+     * need to load the font file and to render all glyphs.
+     *
+     * @param fontCache The newly selected font
+     */
+    private void prewarmTextFont (final FontCache fontCache)
+    {
+        final int [] sizes = this.activeTextFont.getUsedSizes ();
+        CompletableFuture.runAsync ( () -> fontCache.prewarm (sizes, VirtualDisplay.RENDERING_HINTS), FONT_LOADER).whenComplete ( (result, ex) -> {
+            // Ignore it if another font was selected in the meantime
+            if (this.textFontProperty.get () != fontCache)
+                return;
+            this.activeTextFont = fontCache;
+            this.updateTheme ();
+            this.activeTextFontProperty.set (fontCache);
+        });
+    }
+
+
+    /**
+     * Creates the background thread which prewarms the fonts.
+     *
+     * @param runnable The runnable to execute
+     * @return The thread
+     */
+    private static Thread createFontLoaderThread (final Runnable runnable)
+    {
+        final Thread thread = new Thread (runnable, "Font Loader");
+        thread.setDaemon (true);
+        return thread;
     }
 
 
     /**
-     * Add a listener which gets informed if any color of the layout changes.
+     * Add a listener which gets informed if any color of the layout changes. It is called for
+     * each changed color, use {@link #addLayoutChangeListener(LayoutChangeListener)} to get informed
+     * only once for several changes.
      *
      * @param listener The listener to register
      */
@@ -317,4 +649,113 @@ public class LayoutSettings
         this.vuColorProperty.addListener (listener);
         this.editColorProperty.addListener (listener);
     }
+
+
+    /**
+     * Collects the changes of an update and applies them afterwards.
+     */
+    private class LayoutEditor implements Editor
+    {
+        private boolean isFontChanged = false;
+        private String  fontName;
+        private Color   textColor;
+        private Color   backgroundColor;
+        private Color   borderColor;
+        private Color   faderColor;
+        private Color   vuColor;
+        private Color   editColor;
+
+
+        /** {@inheritDoc} */
+        @Override
+        public Editor setTextFont (final String fontName)
+        {
+            this.isFontChanged = true;
+            this.fontName = fontName;
+            return this;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public Editor setTextColor (final Color color)
+        {
+            this.textColor = color;
+            return this;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public Editor setBackgroundColor (final Color color)
+        {
+            this.backgroundColor = color;
+            return this;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public Editor setBorderColor (final Color color)
+        {
+            this.borderColor = color;
+            return this;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public Editor setFaderColor (final Color color)
+        {
+            this.faderColor = color;
+            return this;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public Editor setVuColor (final Color color)
+        {
+            this.vuColor = color;
+            return this;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public Editor setEditColor (final Color color)
+        {
+            this.editColor = color;
+            return this;
+        }
+
+
+        /**
+         * Applies all set values to the properties.
+         */
+        void apply ()
+        {
+            if (this.isFontChanged)
+                LayoutSettings.this.textFontProperty.set (this.fontName == null ? new FontCache () : new FontCache (this.fontName));
+            applyColor (LayoutSettings.this.textColorProperty, this.textColor);
+            applyColor (LayoutSettings.this.backgroundColorProperty, this.backgroundColor);
+            applyColor (LayoutSettings.this.borderColorProperty, this.borderColor);
+            applyColor (LayoutSettings.this.faderColorProperty, this.faderColor);
+            applyColor (LayoutSettings.this.vuColorProperty, this.vuColor);
+            applyColor (LayoutSettings.this.editColorProperty, this.editColor);
+        }
+
+
+        /**
+         * Sets the color of a property if it was edited.
+         *
+         * @param property The property
+         * @param color The new color or null if not edited
+         */
+        private void applyColor (final SimpleObjectProperty<Color> property, final Color color)
+        {
+            if (color != null)
+                property.set (color);
+        }
+    }
 }
@@ -13,12 +13,21 @@ import javafx.application.Application;
 public class Push22Bitwig
 {
     /**
-     * Main function.
+     * Main function. Starts the display emulator. If the first argument is '--headless' the
+     * display is run without user interface. In that case the optional second argument is the
+     * name of the configuration file.
      *
-     * @param args Unused
+     * @param args The arguments
      */
     public static void main (final String [] args)
     {
+        if (args.length > 0 && "--headless".equals (args[0]))
+        {
+            System.setProperty ("java.awt.headless", "true");
+            new DisplayDaemon (args.length > 1 ? args[1] : "Push2Display.config").start ();
+            return;
+        }
+
         Application.launch (DisplayEmulator.class);
     }
 }
@@ -1,9 +1,14 @@
 package push22bitwig;
 
+import push22bitwig.util.BoundedCache;
+
 import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.dom.util.DOMUtilities;
+import org.apache.batik.transcoder.SVGAbstractTranscoder;
 import org.apache.batik.transcoder.TranscoderException;
 import org.apache.batik.transcoder.TranscoderInput;
 import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.TranscodingHints;
 import org.apache.batik.transcoder.image.ImageTranscoder;
 import org.apache.batik.util.XMLResourceDescriptor;
 import org.w3c.dom.Document;
@@ -16,10 +21,10 @@ import javax.xml.parsers.ParserConfigurationException;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
-import java.util.Map;
 
 
 /**
@@ -31,79 +36,132 @@ import java.util.Map;
  */
 public class SVGImage
 {
-    private static final Map<String, Map<Color, SVGImage>> CACHE      = new HashMap<> ();
-    private static final Object                            CACHE_LOCK = new Object ();
+    /** The parsed documents with their original colors. */
+    private static final BoundedCache<String, SVGDocument>    MASTERS    = new BoundedCache<> (64);
+
+    /** Parser and transcoder are expensive to create but not thread safe, keep one per thread. */
+    private static final ThreadLocal<SAXSVGDocumentFactory>   FACTORY    = ThreadLocal.withInitial ( () -> new SAXSVGDocumentFactory (XMLResourceDescriptor.getXMLParserClassName ()));
+    private static final ThreadLocal<BufferedImageTranscoder> TRANSCODER = ThreadLocal.withInitial (BufferedImageTranscoder::new);
 
-    private BufferedImage                                  bufferedImage;
+    private BufferedImage                                     bufferedImage;
 
 
     /**
-     * Get a SVG image as a buffered image. The image is expected to be monochrome: 1 color and the
-     * a transparent background. The given color replaces the color of the image. The images are
-     * cached by name and color.
+     * Constructor. The image is parsed only once, further colors are created from a copy of the
+     * parsed document.
      *
-     * @param imageName The name (absolute path) of the image
-     * @param color The color for replacement
-     * @return The buffered image
+     * @param imageName The name of the image (absolute path) to load
+     * @param color The replacement color
+     * @throws IOException Could not load the image
+     */
+    public SVGImage (final String imageName, final Color color) throws IOException
+    {
+        this (imageName, color, 0, 0);
+    }
+
+
+    /**
+     * Constructor. The image is parsed only once, further colors and sizes are created from a copy
+     * of the parsed document.
+     *
+     * @param imageName The name of the image (absolute path) to load
+     * @param color The replacement color
+     * @param width The width in pixels to which to render the image, 0 for its intrinsic width
+     * @param height The height in pixels to which to render the image, 0 for its intrinsic height
      * @throws IOException Could not load the image
      */
-    public static BufferedImage getSVGImage (final String imageName, final Color color) throws IOException
+    public SVGImage (final String imageName, final Color color, final int width, final int height) throws IOException
     {
-        SVGImage svgImage;
-        synchronized (CACHE_LOCK)
+        final SVGDocument master = MASTERS.get (imageName, SVGImage::parseResource);
+        final SVGDocument document;
+        synchronized (master)
         {
-            Map<Color, SVGImage> images = CACHE.get (imageName);
-            if (images == null)
-            {
-                images = new HashMap<> ();
-                CACHE.put (imageName, images);
-            }
-            svgImage = images.get (color);
-            if (svgImage == null)
-            {
-                svgImage = new SVGImage (imageName, color);
-                images.put (color, svgImage);
-            }
+            document = (SVGDocument) DOMUtilities.deepCloneDocument (master, master.getImplementation ());
         }
-        return svgImage.getImage ();
+        changeColor (document, color);
+        this.bufferedImage = transcode (document, width, height);
     }
 
 
     /**
-     * Clears the image cache.
+     * Constructor.
+     *
+     * @param file The SVG file to load
+     * @param color The replacement color
+     * @throws IOException Could not load the image
      */
-    public static void clearCache ()
+    public SVGImage (final File file, final Color color) throws IOException
     {
-        synchronized (CACHE_LOCK)
+        try (InputStream in = new FileInputStream (file))
         {
-            CACHE.clear ();
+            this.bufferedImage = transcode (this.loadDocument (in, color), 0, 0);
+        }
+        catch (final SAXException | ParserConfigurationException ex)
+        {
+            throw new IOException (ex);
         }
     }
 
 
     /**
-     * Constructor.
+     * Parses a SVG image from the resources.
      *
      * @param imageName The name of the image (absolute path) to load
-     * @param color The replacement color
+     * @return The parsed document
      * @throws IOException Could not load the image
      */
-    public SVGImage (final String imageName, final Color color) throws IOException
+    private static SVGDocument parseResource (final String imageName) throws IOException
+    {
+        try (InputStream in = SVGImage.class.getResourceAsStream (imageName))
+        {
+            return FACTORY.get ().createSVGDocument ("xxx", in);
+        }
+    }
+
+
+    /**
+     * Renders a SVG document.
+     *
+     * @param document The document to render
+     * @param width The width in pixels to which to render the image, 0 for its intrinsic width
+     * @param height The height in pixels to which to render the image, 0 for its intrinsic height
+     * @return The rendered image
+     * @throws IOException Could not render the image
+     */
+    private static BufferedImage transcode (final Document document, final int width, final int height) throws IOException
     {
-        final BufferedImageTranscoder trans = new BufferedImageTranscoder ();
-        try (InputStream file = this.getClass ().getResourceAsStream (imageName))
+        final BufferedImageTranscoder trans = TRANSCODER.get ();
+        setSizeHint (trans, SVGAbstractTranscoder.KEY_WIDTH, width);
+        setSizeHint (trans, SVGAbstractTranscoder.KEY_HEIGHT, height);
+        try
         {
-            final Document doc = this.loadDocument (file, color);
-            trans.transcode (new TranscoderInput (doc), null);
-            this.bufferedImage = trans.getBufferedImage ();
+            trans.transcode (new TranscoderInput (document), null);
+            return trans.getBufferedImage ();
         }
-        catch (final TranscoderException | SAXException | ParserConfigurationException ex)
+        catch (final TranscoderException ex)
         {
             throw new IOException (ex);
         }
     }
 
 
+    /**
+     * Sets or removes a size hint of the transcoder. Since the transcoder is reused, a hint of a
+     * previous image must be removed.
+     *
+     * @param transcoder The transcoder
+     * @param key The key of the hint
+     * @param size The size in pixels, 0 to remove the hint
+     */
+    private static void setSizeHint (final BufferedImageTranscoder transcoder, final TranscodingHints.Key key, final int size)
+    {
+        if (size > 0)
+            transcoder.addTranscodingHint (key, Float.valueOf (size));
+        else
+            transcoder.removeTranscodingHint (key);
+    }
+
+
     /**
      * Get the buffered image.
      *
@@ -128,17 +186,24 @@ public class SVGImage
      */
     public Document loadDocument (final InputStream inputStream, final Color color) throws SAXException, IOException, ParserConfigurationException
     {
-        final String parser = XMLResourceDescriptor.getXMLParserClassName ();
-        final SAXSVGDocumentFactory f = new SAXSVGDocumentFactory (parser);
+        final SVGDocument document = FACTORY.get ().createSVGDocument ("xxx", inputStream);
+        changeColor (document, color);
+        return document;
+    }
 
-        final SVGDocument document = f.createSVGDocument ("xxx", inputStream);
 
+    /**
+     * Replaces the color of all shapes of a document.
+     *
+     * @param document The document
+     * @param color The replacement color
+     */
+    private static void changeColor (final SVGDocument document, final Color color)
+    {
         changeColorOfElement (color, document, "polygon");
         changeColorOfElement (color, document, "circle");
         changeColorOfElement (color, document, "path");
         changeColorOfElement (color, document, "rect");
-
-        return document;
     }
 
 
@@ -177,7 +242,7 @@ public class SVGImage
     /**
      * Stores the SVG image in a buffered image during the transcoding process.
      */
-    public class BufferedImageTranscoder extends ImageTranscoder
+    public static class BufferedImageTranscoder extends ImageTranscoder
     {
         private BufferedImage img;
 
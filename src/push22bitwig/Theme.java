@@ -0,0 +1,275 @@
+package push22bitwig;
+
+import push22bitwig.util.FontCache;
+
+import java.awt.Color;
+import java.awt.Font;
+
+
+/**
+ * An immutable snapshot of the layout settings (colors and font) which is used for drawing one
+ * frame. All derived colors are calculated once when the snapshot is created, therefore drawing
+ * does neither need to access the settings properties nor to create new colors.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public final class Theme
+{
+    private final FontCache textFont;
+
+    private final Color     textColor;
+    private final Color     backgroundColor;
+    private final Color     backgroundBrighterColor;
+    private final Color     backgroundBrightestColor;
+    private final Color     backgroundDarkerColor;
+    private final Color     borderColor;
+    private final Color     faderColor;
+    private final Color     vuColor;
+    private final Color     editColor;
+
+    private final int       textRGB;
+    private final int       backgroundRGB;
+    private final int       backgroundBrighterRGB;
+    private final int       backgroundDarkerRGB;
+    private final int       borderRGB;
+    private final int       faderRGB;
+    private final int       vuRGB;
+    private final int       editRGB;
+
+
+    /**
+     * Constructor.
+     *
+     * @param textFont The font for the text
+     * @param textColor The color of the text
+     * @param backgroundColor The background color
+     * @param borderColor The border color
+     * @param faderColor The fader color
+     * @param vuColor The VU color
+     * @param editColor The edit color
+     */
+    public Theme (final FontCache textFont, final Color textColor, final Color backgroundColor, final Color borderColor, final Color faderColor, final Color vuColor, final Color editColor)
+    {
+        this.textFont = textFont;
+
+        this.textColor = textColor;
+        this.backgroundColor = backgroundColor;
+        this.backgroundBrighterColor = backgroundColor.brighter ();
+        this.backgroundBrightestColor = this.backgroundBrighterColor.brighter ();
+        this.backgroundDarkerColor = backgroundColor.darker ();
+        this.borderColor = borderColor;
+        this.faderColor = faderColor;
+        this.vuColor = vuColor;
+        this.editColor = editColor;
+
+        this.textRGB = textColor.getRGB ();
+        this.backgroundRGB = backgroundColor.getRGB ();
+        this.backgroundBrighterRGB = this.backgroundBrighterColor.getRGB ();
+        this.backgroundDarkerRGB = this.backgroundDarkerColor.getRGB ();
+        this.borderRGB = borderColor.getRGB ();
+        this.faderRGB = faderColor.getRGB ();
+        this.vuRGB = vuColor.getRGB ();
+        this.editRGB = editColor.getRGB ();
+    }
+
+
+    /**
+     * Get the font for the text with the preferred size.
+     *
+     * @param size The size of the font in pixels
+     * @return The font
+     */
+    public Font getTextFont (final int size)
+    {
+        return this.textFont.getFont (size);
+    }
+
+
+    /**
+     * Get the color for the text.
+     *
+     * @return The color
+     */
+    public Color getTextColor ()
+    {
+        return this.textColor;
+    }
+
+
+    /**
+     * Get the background color.
+     *
+     * @return The color
+     */
+    public Color getBackgroundColor ()
+    {
+        return this.backgroundColor;
+    }
+
+
+    /**
+     * Get the brighter background color, used for selected elements.
+     *
+     * @return The color
+     */
+    public Color getBackgroundBrighterColor ()
+    {
+        return this.backgroundBrighterColor;
+    }
+
+
+    /**
+     * Get the twice brightened background color, used for highlights.
+     *
+     * @return The color
+     */
+    public Color getBackgroundBrightestColor ()
+    {
+        return this.backgroundBrightestColor;
+    }
+
+
+    /**
+     * Get the darker background color, used for the background of controls.
+     *
+     * @return The color
+     */
+    public Color getBackgroundDarkerColor ()
+    {
+        return this.backgroundDarkerColor;
+    }
+
+
+    /**
+     * Get the border color.
+     *
+     * @return The color
+     */
+    public Color getBorderColor ()
+    {
+        return this.borderColor;
+    }
+
+
+    /**
+     * Get the fader color.
+     *
+     * @return The color
+     */
+    public Color getFaderColor ()
+    {
+        return this.faderColor;
+    }
+
+
+    /**
+     * Get the VU color.
+     *
+     * @return The color
+     */
+    public Color getVuColor ()
+    {
+        return this.vuColor;
+    }
+
+
+    /**
+     * Get the edit color.
+     *
+     * @return The color
+     */
+    public Color getEditColor ()
+    {
+        return this.editColor;
+    }
+
+
+    /**
+     * Get the color for the text as packed ARGB value.
+     *
+     * @return The ARGB value
+     */
+    public int getTextRGB ()
+    {
+        return this.textRGB;
+    }
+
+
+    /**
+     * Get the background color as packed ARGB value.
+     *
+     * @return The ARGB value
+     */
+    public int getBackgroundRGB ()
+    {
+        return this.backgroundRGB;
+    }
+
+
+    /**
+     * Get the brighter background color as packed ARGB value.
+     *
+     * @return The ARGB value
+     */
+    public int getBackgroundBrighterRGB ()
+    {
+        return this.backgroundBrighterRGB;
+    }
+
+
+    /**
+     * Get the darker background color as packed ARGB value.
+     *
+     * @return The ARGB value
+     */
+    public int getBackgroundDarkerRGB ()
+    {
+        return this.backgroundDarkerRGB;
+    }
+
+
+    /**
+     * Get the border color as packed ARGB value.
+     *
+     * @return The ARGB value
+     */
+    public int getBorderRGB ()
+    {
+        return this.borderRGB;
+    }
+
+
+    /**
+     * Get the fader color as packed ARGB value.
+     *
+     * @return The ARGB value
+     */
+    public int getFaderRGB ()
+    {
+        return this.faderRGB;
+    }
+
+
+    /**
+     * Get the VU color as packed ARGB value.
+     *
+     * @return The ARGB value
+     */
+    public int getVuRGB ()
+    {
+        return this.vuRGB;
+    }
+
+
+    /**
+     * Get the edit color as packed ARGB value.
+     *
+     * @return The ARGB value
+     */
+    public int getEditRGB ()
+    {
+        return this.editRGB;
+    }
+}
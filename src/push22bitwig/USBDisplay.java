@@ -1,5 +1,9 @@
 package push22bitwig;
 
+import push22bitwig.metrics.PipelineMetrics;
+import push22bitwig.metrics.PipelineStage;
+import push22bitwig.metrics.UsbTransferCompletedEvent;
+
 import org.usb4java.Device;
 import org.usb4java.DeviceDescriptor;
 import org.usb4java.DeviceHandle;
@@ -12,14 +16,16 @@ import javafx.scene.image.PixelReader;
 import javafx.scene.paint.Color;
 
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferInt;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 
 /**
- * Connects to the display of the Push 2 via USB.
+ * Connects to the display of the Push 2 via USB. Several Push 2 can be connected at the same time,
+ * libusb is initialized with the first and closed with the last connection.
  *
  * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
  *
@@ -28,14 +34,14 @@ import java.util.Iterator;
 public class USBDisplay
 {
     /** The pixel width of the display. */
-    private static final int     WIDTH            = 960;
+    static final int             WIDTH            = 960;
     /** The pixel height of the display. */
-    private static final int     HEIGHT           = 160;
+    static final int             HEIGHT           = 160;
 
     /** The size of the display header. */
     private static final int     HDR_SZ           = 0x10;
     /** The size of the display content. */
-    private static final int     DATA_SZ          = 20 * 0x4000;
+    static final int             DATA_SZ          = 20 * 0x4000;
 
     private static final byte [] DISPLAY_HEADER   =
     {
@@ -64,25 +70,104 @@ public class USBDisplay
     /** Push 2 USB Interface for the display. */
     private static final int     INTERFACE_NUMBER = 0;
 
+    /** The number of connected displays which use libusb. */
+    private static int           libUsbUsers      = 0;
+
+    private final PipelineMetrics metrics;
+    private final FrameEncoder   encoder;
+
     private DeviceHandle         handle;
 
+    private final ByteBuffer     header           = ByteBuffer.allocateDirect (HDR_SZ).put (DISPLAY_HEADER);
+    private final ByteBuffer     buffer           = FrameEncoder.createBuffer ();
+    private final IntBuffer      transfered       = IntBuffer.allocate (1);
+
 
     /**
-     * Connect to the USB port and claim the display interface.
+     * Constructor.
+     *
+     * @param metrics Where to record the timing of encoding and transfer
      */
-    public void connect ()
+    public USBDisplay (final PipelineMetrics metrics)
     {
-        int result = LibUsb.init (null);
-        if (result != LibUsb.SUCCESS)
-            throw new LibUsbException ("Unable to initialize libusb.", result);
+        this.metrics = metrics;
+        this.encoder = new FrameEncoder (metrics);
+    }
 
-        this.handle = openDeviceWithVidPid (VENDOR_ID, PRODUCT_ID);
-        if (this.handle == null)
+
+    /**
+     * Connect to the USB port and claim the display interface of the first found Push 2.
+     */
+    public void connect ()
+    {
+        initLibUsb ();
+        final List<DeviceHandle> handles;
+        try
+        {
+            handles = openDevicesWithVidPid (VENDOR_ID, PRODUCT_ID, true);
+        }
+        catch (final LibUsbException ex)
+        {
+            exitLibUsb ();
+            throw ex;
+        }
+        if (handles.isEmpty ())
+        {
+            exitLibUsb ();
             throw new LibUsbException ("Device not found.", LibUsb.ERROR_NO_DEVICE);
+        }
 
-        result = LibUsb.claimInterface (this.handle, INTERFACE_NUMBER);
+        this.handle = handles.get (0);
+        final int result = LibUsb.claimInterface (this.handle, INTERFACE_NUMBER);
         if (result != LibUsb.SUCCESS)
             throw new LibUsbException ("Unable to claim interface.", result);
+        this.metrics.usbConnected ();
+    }
+
+
+    /**
+     * Connect to all Push 2 which are attached to the USB ports and claim their display interfaces.
+     * Devices whose interface cannot be claimed (e.g. since it is used by another application) are
+     * skipped.
+     *
+     * @param metrics Where to record the timing of encoding and transfer
+     * @return The connected displays, at least one
+     * @throws LibUsbException No device was found or none could be claimed
+     */
+    public static List<USBDisplay> connectAll (final PipelineMetrics metrics)
+    {
+        initLibUsb ();
+        try
+        {
+            final List<DeviceHandle> handles = openDevicesWithVidPid (VENDOR_ID, PRODUCT_ID, false);
+            if (handles.isEmpty ())
+                throw new LibUsbException ("Device not found.", LibUsb.ERROR_NO_DEVICE);
+
+            final List<USBDisplay> displays = new ArrayList<> (handles.size ());
+            int result = LibUsb.SUCCESS;
+            for (final DeviceHandle handle: handles)
+            {
+                result = LibUsb.claimInterface (handle, INTERFACE_NUMBER);
+                if (result != LibUsb.SUCCESS)
+                {
+                    LibUsb.close (handle);
+                    continue;
+                }
+                // Each display closes libusb on disconnect
+                initLibUsb ();
+                final USBDisplay display = new USBDisplay (metrics);
+                display.handle = handle;
+                displays.add (display);
+                metrics.usbConnected ();
+            }
+            if (displays.isEmpty ())
+                throw new LibUsbException ("Unable to claim interface.", result);
+            return displays;
+        }
+        finally
+        {
+            exitLibUsb ();
+        }
     }
 
 
@@ -136,33 +221,41 @@ public class USBDisplay
         if (this.handle == null)
             return;
 
-        final ByteBuffer header = ByteBuffer.allocateDirect (HDR_SZ);
-        final ByteBuffer buffer = ByteBuffer.allocateDirect (DATA_SZ);
-        final IntBuffer transfered = IntBuffer.allocate (1);
+        this.encoder.encode (image, this.buffer);
+        this.transfer (this.buffer);
+    }
 
-        header.put (DISPLAY_HEADER);
 
-        final int [] pixels = ((DataBufferInt) image.getRaster ().getDataBuffer ()).getData ();
+    /**
+     * Send an already encoded frame to the screen. The frame is only read, therefore the same
+     * frame can be sent to several displays at the same time.
+     *
+     * @param frame The frame encoded with a {@link FrameEncoder}
+     */
+    public void transfer (final ByteBuffer frame)
+    {
+        final DeviceHandle h = this.handle;
+        if (h == null)
+            return;
 
-        for (int y = 0; y < HEIGHT; y++)
+        final UsbTransferCompletedEvent transferEvent = new UsbTransferCompletedEvent ();
+        transferEvent.begin ();
+        final long start = System.nanoTime ();
+        final int headerResult = LibUsb.bulkTransfer (h, (byte) 0x01, this.header, this.transfered, 1000L);
+        final int headerBytes = this.transfered.get (0);
+        final int result = LibUsb.bulkTransfer (h, (byte) 0x01, frame, this.transfered, 1000L);
+        final long transfered = System.nanoTime ();
+        final int bytes = headerBytes + this.transfered.get (0);
+        this.metrics.record (PipelineStage.USB_TRANSFER, start, transfered);
+        this.metrics.frameTransfered (transfered);
+        this.metrics.usbTransfered (bytes, headerResult == LibUsb.SUCCESS && result == LibUsb.SUCCESS);
+        transferEvent.end ();
+        if (transferEvent.shouldCommit ())
         {
-            for (int x = 0; x < WIDTH; x++)
-            {
-                final int pixel = pixels[x + y * WIDTH];
-                final int red = ((pixel & 0x00FF0000) >> 16) * 31 / 255;
-                final int green = ((pixel & 0x0000FF00) >> 8) * 63 / 255;
-                final int blue = (pixel & 0x000000FF) * 31 / 255;
-
-                // 3b(low) green - 5b red / 5b blue - 3b (high) green, e.g. gggRRRRR BBBBBGGG
-                buffer.put ((byte) ((green & 0x07) << 5 | red & 0x1F));
-                buffer.put ((byte) ((blue & 0x1F) << 3 | (green & 0x38) >> 3));
-            }
-            for (int x = 0; x < 128; x++)
-                buffer.put ((byte) 0x00);
+            transferEvent.bytes = bytes;
+            transferEvent.result = headerResult == LibUsb.SUCCESS ? result : headerResult;
+            transferEvent.commit ();
         }
-
-        LibUsb.bulkTransfer (this.handle, (byte) 0x01, header, transfered, 1000L);
-        LibUsb.bulkTransfer (this.handle, (byte) 0x01, buffer, transfered, 1000L);
     }
 
 
@@ -183,24 +276,52 @@ public class USBDisplay
             throw new LibUsbException ("Unable to release interface", result);
 
         LibUsb.close (h);
-        LibUsb.exit (null);
+        exitLibUsb ();
+    }
+
+
+    /**
+     * Initializes libusb if this is the first user.
+     */
+    private static synchronized void initLibUsb ()
+    {
+        if (libUsbUsers == 0)
+        {
+            final int result = LibUsb.init (null);
+            if (result != LibUsb.SUCCESS)
+                throw new LibUsbException ("Unable to initialize libusb.", result);
+        }
+        libUsbUsers++;
+    }
+
+
+    /**
+     * Closes libusb if this was the last user.
+     */
+    private static synchronized void exitLibUsb ()
+    {
+        libUsbUsers--;
+        if (libUsbUsers == 0)
+            LibUsb.exit (null);
     }
 
 
     /**
-     * Find the device with the given vendor and product ID and open it.
+     * Find the devices with the given vendor and product ID and open them.
      *
      * @param vendorId The vendor ID to look for
      * @param productId The product ID to look for
-     * @return The device handle of the device or null if not found
+     * @param isFirstOnly Stop after the first device which could be opened
+     * @return The device handles of the opened devices, empty if none was found
      */
-    private static DeviceHandle openDeviceWithVidPid (final short vendorId, final short productId)
+    private static List<DeviceHandle> openDevicesWithVidPid (final short vendorId, final short productId, final boolean isFirstOnly)
     {
         final DeviceList list = new DeviceList ();
         int result = LibUsb.getDeviceList (null, list);
         if (result < LibUsb.SUCCESS)
             throw new LibUsbException ("Unable to get device list.", result);
 
+        final List<DeviceHandle> handles = new ArrayList<> ();
         try
         {
             final Iterator<Device> iterator = list.iterator ();
@@ -226,11 +347,13 @@ public class USBDisplay
                         // Continue, maybe there is a working device
                         continue;
                     }
-                    return handle;
+                    handles.add (handle);
+                    if (isFirstOnly)
+                        break;
                 }
             }
 
-            if (ex != null)
+            if (handles.isEmpty () && ex != null)
                 throw ex;
         }
         finally
@@ -238,6 +361,6 @@ public class USBDisplay
             LibUsb.freeDeviceList (list, true);
         }
 
-        return null;
+        return handles;
     }
 }
@@ -1,17 +1,31 @@
 package push22bitwig;
 
+import push22bitwig.metrics.FrameRenderedEvent;
+import push22bitwig.metrics.PipelineStage;
 import push22bitwig.model.DisplayModel;
+import push22bitwig.model.grid.ChannelGridElement;
 import push22bitwig.model.grid.GridElement;
+import push22bitwig.model.grid.PixelGridElement;
+import push22bitwig.model.grid.WaveformGridElement;
 
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.io.IOException;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 /**
- * Draws the content of the display based on the model into a bitmap.
+ * Draws the content of the display based on the model into a bitmap. The display is triple
+ * buffered: a frame is drawn into the render buffer, which is then exchanged with the ready buffer.
+ * The reader takes the ready buffer in exchange for the buffer it has read before. Therefore, the
+ * drawing never waits for the reader and the reader never sees a frame which is still drawn.
  *
  * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
  *
@@ -19,15 +33,36 @@ import java.util.List;
  */
 public class VirtualDisplay
 {
-    private static final int     DISPLAY_WIDTH     = 960;
-    private static final int     DISPLAY_HEIGHT    = 160;
+    private static final int             DISPLAY_WIDTH     = 960;
+    private static final int             DISPLAY_HEIGHT    = 160;
 
-    private final DisplayModel   model;
-    private final BufferedImage  image1            = new BufferedImage (DISPLAY_WIDTH, DISPLAY_HEIGHT, BufferedImage.TYPE_INT_ARGB);
-    private final BufferedImage  image2            = new BufferedImage (DISPLAY_WIDTH, DISPLAY_HEIGHT, BufferedImage.TYPE_INT_ARGB);
-    private BufferedImage        currentImage      = this.image1;
-    private final Object         imageExchangeLock = new Object ();
-    private final LayoutSettings layoutSettings;
+    /** The number of pixels of one line in the USB transfer buffer of the device (incl. padding). */
+    public static final int              DEVICE_LINE_WIDTH = 1024;
+
+    private static final int []          RGB565_MASKS      =
+    {
+            0xF800,
+            0x07E0,
+            0x001F
+    };
+
+    /** The rendering hints with which the display is drawn. */
+    static final RenderingHints          RENDERING_HINTS   = createRenderingHints ();
+
+    private final DisplayModel           model;
+    private volatile boolean             isRGB565          = false;
+    /** Serializes the drawing, guards the render frame and the frame sequence. */
+    private final Object                 renderLock        = new Object ();
+    private Frame                        renderFrame       = new Frame ();
+    /** The last published frame, it is never drawn into but its pixels are copied. */
+    private Frame                        publishedFrame;
+    private final AtomicReference<Frame> readyFrame        = new AtomicReference<> (new Frame ());
+    /** Only accessed by the reader. */
+    private Frame                        readFrame         = new Frame ();
+    private long                         frameSequence     = 0;
+    private final Object                 previewLock       = new Object ();
+    private BufferedImage                previewImage;
+    private final LayoutSettings         layoutSettings;
 
 
     /**
@@ -39,10 +74,46 @@ public class VirtualDisplay
     public VirtualDisplay (final DisplayModel model, final LayoutSettings layoutSettings)
     {
         this.model = model;
-        this.model.addGridElementChangeListener (c -> this.redrawGrid ());
+        this.model.addGridElementChangeListener (this::redrawGrid);
+        this.model.addSampleListener ( () -> this.render (true));
         this.layoutSettings = layoutSettings;
         this.layoutSettings.addFontChangeListener ( (observable, oldValue, newValue) -> this.redrawGrid ());
-        this.layoutSettings.addColorChangeListener ( (observable, oldValue, newValue) -> this.redrawGrid ());
+        this.layoutSettings.addLayoutChangeListener (replacedColors -> {
+            IconAtlas.removeColors (replacedColors);
+            this.redrawGrid ();
+        });
+        IconAtlas.addLoadListener (this::redrawGrid);
+    }
+
+
+    /**
+     * Set the pixel format of the images into which the display is drawn. If RGB565 is enabled the
+     * display is drawn into 16 bit images which have the same line layout as the USB transfer
+     * buffer of the device (see {@link #DEVICE_LINE_WIDTH}), otherwise into 32 bit ARGB images.
+     * The images of the buffers are replaced when they are drawn the next time.
+     *
+     * @param isRGB565 True to draw into RGB565 images
+     */
+    public void setRGB565 (final boolean isRGB565)
+    {
+        synchronized (this.renderLock)
+        {
+            if (this.isRGB565 == isRGB565)
+                return;
+            this.isRGB565 = isRGB565;
+        }
+        this.redrawGrid ();
+    }
+
+
+    /**
+     * Is the display drawn into RGB565 images?
+     *
+     * @return True if RGB565 is enabled
+     */
+    public boolean isRGB565 ()
+    {
+        return this.isRGB565;
     }
 
 
@@ -51,23 +122,141 @@ public class VirtualDisplay
      */
     public void redrawGrid ()
     {
-        synchronized (this.imageExchangeLock)
+        this.render (false);
+    }
+
+
+    /**
+     * Advances the VU meters and draws a new frame if they have changed. Only the VU strips and
+     * waveforms are drawn on top of a copy of the last frame. Call it from the frame loop before
+     * getting the image.
+     */
+    public void updateVuMeters ()
+    {
+        if (this.model.advanceVuMeters (System.nanoTime ()))
+            this.render (true);
+    }
+
+
+    /**
+     * Draws and publishes a frame.
+     *
+     * @param isAnimationOnly If true only the VU strips and waveforms are drawn on top of a copy of
+     *            the last frame, if possible
+     */
+    private void render (final boolean isAnimationOnly)
+    {
+        synchronized (this.renderLock)
         {
-            final BufferedImage drawImage = this.currentImage == this.image1 ? this.image2 : this.image1;
-            this.drawGrid (configureGraphics (drawImage));
-            this.currentImage = drawImage;
+            final FrameRenderedEvent event = new FrameRenderedEvent ();
+            event.begin ();
+            final long start = System.nanoTime ();
+
+            final Frame frame = this.renderFrame;
+            if (frame.isRGB565 != this.isRGB565)
+            {
+                frame.image = createImage (this.isRGB565);
+                frame.isRGB565 = this.isRGB565;
+            }
+            final Graphics2D gc = configureGraphics (frame.image);
+            int dirtyColumns = -1;
+            if (isAnimationOnly && this.publishedFrame != null && this.publishedFrame.isRGB565 == frame.isRGB565)
+            {
+                // The reader never draws into the published frame, therefore it can be read
+                // while the reader uses it as well
+                copyPixels (this.publishedFrame.image, frame.image);
+                dirtyColumns = this.drawAnimations (gc, frame.image);
+            }
+            if (dirtyColumns < 0)
+                dirtyColumns = (1 << this.drawGrid (gc, frame.image)) - 1;
+            gc.dispose ();
+            this.frameSequence++;
+            frame.sequence = this.frameSequence;
+
+            // Publish the frame, get back the previous ready frame or the one the reader is done
+            // with
+            this.renderFrame = this.readyFrame.getAndSet (frame);
+            this.publishedFrame = frame;
+
+            this.model.getMetrics ().record (PipelineStage.RENDER, start, System.nanoTime ());
+            this.model.getMetrics ().frameRendered ();
+
+            event.end ();
+            if (event.shouldCommit ())
+            {
+                event.frameSequence = this.frameSequence;
+                event.dirtyColumns = dirtyColumns;
+                event.isRGB565 = this.isRGB565;
+                event.commit ();
+            }
         }
     }
 
 
     /**
-     * Get the drawn image.
+     * Draws the display with a scale factor into an image for a high resolution preview. Text,
+     * shapes and icons are rendered in the scaled resolution instead of scaling up the pixels of
+     * the display image. This is independent from the image which is sent to the device (see
+     * {@link #getImage()}) and only needs to be called if a scaled preview is shown.
      *
-     * @return The image
+     * @param scale The scale factor, 2 or larger
+     * @return The image of type TYPE_INT_ARGB with the scaled size of the display, it is reused
+     *         by the next call
+     */
+    public BufferedImage drawPreview (final int scale)
+    {
+        synchronized (this.previewLock)
+        {
+            if (this.previewImage == null || this.previewImage.getWidth () != scale * DISPLAY_WIDTH)
+                this.previewImage = new BufferedImage (scale * DISPLAY_WIDTH, scale * DISPLAY_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+            final Graphics2D gc = configureGraphics (this.previewImage);
+            gc.scale (scale, scale);
+            this.drawGrid (gc);
+            gc.dispose ();
+            return this.previewImage;
+        }
+    }
+
+
+    /**
+     * Get the latest completely drawn image. The image is not changed until the next call, even if
+     * new frames are drawn meanwhile. Must only be called by one reader thread. Depending on the
+     * pixel format (see {@link #setRGB565(boolean)}) this is either an image of type TYPE_INT_ARGB
+     * or of type TYPE_USHORT_565_RGB.
+     *
+     * @return The image, it is empty if no frame was drawn yet
      */
     public BufferedImage getImage ()
     {
-        return this.currentImage;
+        // Only exchange if a newer frame is ready, otherwise the reader would take back an older
+        // frame
+        if (this.readyFrame.get ().sequence > this.readFrame.sequence)
+            this.readFrame = this.readyFrame.getAndSet (this.readFrame);
+        return this.readFrame.image;
+    }
+
+
+    /**
+     * Get the sequence number of the image returned by the last call to {@link #getImage()}. The
+     * sequence number is increased for each drawn frame. Must only be called by the reader thread.
+     *
+     * @return The sequence number, 0 if no frame was drawn yet
+     */
+    public long getImageSequence ()
+    {
+        return this.readFrame.sequence;
+    }
+
+
+    /**
+     * Draws the N grid elements of the grid.
+     *
+     * @param gc The graphics context to draw into
+     * @return The number of drawn columns
+     */
+    public int drawGrid (final Graphics2D gc)
+    {
+        return this.drawGrid (gc, null);
     }
 
 
@@ -75,33 +264,133 @@ public class VirtualDisplay
      * Draws the N grid elements of the grid.
      *
      * @param gc The graphics context to draw into
+     * @param image The unscaled image of the graphics context, pixel elements write their pixels
+     *            directly into it, may be null
+     * @return The number of drawn columns
      */
-    public void drawGrid (final Graphics2D gc)
+    private int drawGrid (final Graphics2D gc, final BufferedImage image)
     {
+        // All elements of a frame are drawn with the same colors, even if the settings change
+        final Theme theme = this.layoutSettings.getTheme ();
+
         // Clear display
-        gc.setColor (this.layoutSettings.getBorderColor ());
+        gc.setColor (theme.getBorderColor ());
         gc.fillRect (0, 0, DISPLAY_WIDTH, DISPLAY_HEIGHT);
 
-        final List<GridElement> elements = this.model.getGridElements ();
-        final int size = elements.size ();
-        if (size == 0)
-            return;
-        final int gridWidth = DISPLAY_WIDTH / size;
-        final int paintWidth = gridWidth - GridElement.SEPARATOR_SIZE;
-        final int offsetX = GridElement.SEPARATOR_SIZE / 2;
+        // The elements might be filled in place by the next received grid
+        synchronized (this.model.getGridLock ())
+        {
+            final int size = this.model.getGridElementCount ();
+            if (size == 0)
+                return 0;
+            final int gridWidth = DISPLAY_WIDTH / size;
+            final int paintWidth = gridWidth - GridElement.SEPARATOR_SIZE;
+            final int offsetX = GridElement.SEPARATOR_SIZE / 2;
 
-        try
+            try
+            {
+                for (int i = 0; i < size; i++)
+                {
+                    final GridElement element = this.model.getGridElement (i);
+                    if (image != null && element instanceof PixelGridElement)
+                        ((PixelGridElement) element).drawPixels (image, i * gridWidth + offsetX, paintWidth, DISPLAY_HEIGHT, theme);
+                    else
+                        element.draw (gc, i * gridWidth + offsetX, paintWidth, DISPLAY_HEIGHT, theme);
+                }
+            }
+            catch (final IOException ex)
+            {
+                this.model.addLogMessage ("Could not load SVG image: " + ex.getLocalizedMessage ());
+            }
+            return size;
+        }
+    }
+
+
+    /**
+     * Draws the VU strips of all channel elements and all waveform elements. The other columns are
+     * left untouched.
+     *
+     * @param gc The graphics context to draw into, which contains the previous frame
+     * @param image The image of the graphics context
+     * @return The bit mask of the drawn columns, -1 if a strip is covered and the whole grid needs
+     *         to be drawn
+     */
+    private int drawAnimations (final Graphics2D gc, final BufferedImage image)
+    {
+        final Theme theme = this.layoutSettings.getTheme ();
+
+        synchronized (this.model.getGridLock ())
         {
+            final int size = this.model.getGridElementCount ();
+            if (size == 0)
+                return -1;
+            final int gridWidth = DISPLAY_WIDTH / size;
+            final int paintWidth = gridWidth - GridElement.SEPARATOR_SIZE;
+            final int offsetX = GridElement.SEPARATOR_SIZE / 2;
+
+            int dirtyColumns = 0;
             for (int i = 0; i < size; i++)
-                elements.get (i).draw (gc, i * gridWidth + offsetX, paintWidth, DISPLAY_HEIGHT, this.layoutSettings);
+            {
+                final GridElement element = this.model.getGridElement (i);
+                if (element instanceof ChannelGridElement)
+                {
+                    if (!((ChannelGridElement) element).drawVu (gc, i * gridWidth + offsetX, paintWidth, DISPLAY_HEIGHT, theme))
+                        return -1;
+                    dirtyColumns |= 1 << i;
+                }
+                else if (element instanceof WaveformGridElement)
+                {
+                    ((WaveformGridElement) element).drawPixels (image, i * gridWidth + offsetX, paintWidth, DISPLAY_HEIGHT, theme);
+                    dirtyColumns |= 1 << i;
+                }
+            }
+            return dirtyColumns;
         }
-        catch (final IOException ex)
+    }
+
+
+    /**
+     * Copies all pixels of an image into another image of the same format.
+     *
+     * @param source The image to copy
+     * @param destination The image to overwrite
+     */
+    private static void copyPixels (final BufferedImage source, final BufferedImage destination)
+    {
+        final DataBuffer sourceBuffer = source.getRaster ().getDataBuffer ();
+        final DataBuffer destinationBuffer = destination.getRaster ().getDataBuffer ();
+        if (sourceBuffer instanceof DataBufferUShort)
+        {
+            final short [] data = ((DataBufferUShort) sourceBuffer).getData ();
+            System.arraycopy (data, 0, ((DataBufferUShort) destinationBuffer).getData (), 0, data.length);
+        }
+        else
         {
-            this.model.addLogMessage ("Could not load SVG image: " + ex.getLocalizedMessage ());
+            final int [] data = ((DataBufferInt) sourceBuffer).getData ();
+            System.arraycopy (data, 0, ((DataBufferInt) destinationBuffer).getData (), 0, data.length);
         }
     }
 
 
+    /**
+     * Creates an image to draw into.
+     *
+     * @param isRGB565 If true a TYPE_USHORT_565_RGB image is created which lines are padded to
+     *            {@link #DEVICE_LINE_WIDTH} pixels, otherwise a TYPE_INT_ARGB image
+     * @return The image
+     */
+    private static BufferedImage createImage (final boolean isRGB565)
+    {
+        if (!isRGB565)
+            return new BufferedImage (DISPLAY_WIDTH, DISPLAY_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+
+        final DirectColorModel colorModel = new DirectColorModel (16, RGB565_MASKS[0], RGB565_MASKS[1], RGB565_MASKS[2]);
+        final WritableRaster raster = Raster.createPackedRaster (new DataBufferUShort (DEVICE_LINE_WIDTH * DISPLAY_HEIGHT), DISPLAY_WIDTH, DISPLAY_HEIGHT, DEVICE_LINE_WIDTH, RGB565_MASKS, null);
+        return new BufferedImage (colorModel, raster, false, null);
+    }
+
+
     /**
      * Makes several graphic settings on the graphics.
      *
@@ -111,9 +400,33 @@ public class VirtualDisplay
     private static Graphics2D configureGraphics (final BufferedImage image)
     {
         final Graphics2D g = image.createGraphics ();
-        g.setRenderingHint (RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g.setRenderingHint (RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g.setRenderingHint (RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+        g.setRenderingHints (RENDERING_HINTS);
         return g;
     }
+
+
+    /**
+     * Creates the rendering hints for drawing the display.
+     *
+     * @return The rendering hints
+     */
+    private static RenderingHints createRenderingHints ()
+    {
+        final RenderingHints hints = new RenderingHints (RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        hints.put (RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        hints.put (RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+        return hints;
+    }
+
+
+    /**
+     * One of the three buffers. It is owned either by the renderer, the reader or it is the ready
+     * frame, therefore it needs no synchronization itself.
+     */
+    private static final class Frame
+    {
+        BufferedImage image    = createImage (false);
+        boolean       isRGB565 = false;
+        long          sequence = 0;
+    }
 }
@@ -0,0 +1,34 @@
+package push22bitwig.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * Flight recorder event for encoding a display image into the USB transfer buffer.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+@Name ("push22bitwig.FrameEncoded")
+@Label ("Frame Encoded")
+@Description ("Encoding of a display image into the USB transfer buffer")
+@Category ("Push2Display")
+@StackTrace (false)
+public class FrameEncodedEvent extends Event
+{
+    /** The number of encoded bytes. */
+    @Label ("Bytes")
+    @DataAmount
+    public int     bytes;
+
+    /** True if the frame was encoded from a RGB565 image. */
+    @Label ("RGB565")
+    public boolean isRGB565;
+}
@@ -0,0 +1,36 @@
+package push22bitwig.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * Flight recorder event for drawing the grid into a display image.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+@Name ("push22bitwig.FrameRendered")
+@Label ("Frame Rendered")
+@Description ("Drawing of the grid into a display image")
+@Category ("Push2Display")
+@StackTrace (false)
+public class FrameRenderedEvent extends Event
+{
+    /** The sequence number of the rendered frame. */
+    @Label ("Frame Sequence")
+    public long    frameSequence;
+
+    /** Bit mask of the redrawn columns of the grid. */
+    @Label ("Dirty Columns")
+    public int     dirtyColumns;
+
+    /** True if the frame was drawn into a RGB565 image. */
+    @Label ("RGB565")
+    public boolean isRGB565;
+}
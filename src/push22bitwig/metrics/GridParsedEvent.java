@@ -0,0 +1,34 @@
+package push22bitwig.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * Flight recorder event for parsing a grid message.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+@Name ("push22bitwig.GridParsed")
+@Label ("Grid Parsed")
+@Description ("Parsing of a grid message into grid elements")
+@Category ("Push2Display")
+@StackTrace (false)
+public class GridParsedEvent extends Event
+{
+    /** The types of the parsed grid elements. */
+    @Label ("Element Types")
+    public String elementTypes;
+
+    /** The number of parsed bytes. */
+    @Label ("Bytes")
+    @DataAmount
+    public int    bytes;
+}
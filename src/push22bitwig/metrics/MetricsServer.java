@@ -0,0 +1,232 @@
+package push22bitwig.metrics;
+
+import push22bitwig.IconAtlas;
+import push22bitwig.util.FontCache;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+
+/**
+ * Serves the pipeline metrics via HTTP in the text format of Prometheus at the path /metrics. The
+ * metrics are only read when they are requested, recording them stays lock-free. The durations of
+ * the pipeline stages are exported as one histogram with the stage as label. The latency histograms
+ * count the values below a power of 2 in microseconds exactly. Since the values have a resolution
+ * of 1 microsecond and the bound of a Prometheus bucket is inclusive, the bounds are exported as
+ * the power of 2 minus 1 microsecond, e.g. 0.000015 for the values below 16 microseconds.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class MetricsServer
+{
+    private static final String           PREFIX        = "push22bitwig_";
+    private static final String           CONTENT_TYPE  = "text/plain; version=0.0.4; charset=utf-8";
+    /** The exclusive bucket bounds of the stage histogram: 16 microseconds to about 0.5 seconds. */
+    private static final long []          BUCKET_BOUNDS = createBucketBounds (4, 19);
+
+    private static final PipelineStage [] STAGES        = PipelineStage.values ();
+
+    private final PipelineMetrics         metrics;
+    private HttpServer                    server;
+
+
+    /**
+     * Constructor.
+     *
+     * @param metrics The metrics to serve
+     */
+    public MetricsServer (final PipelineMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+
+    /**
+     * Start the server.
+     *
+     * @param address The address of the interface to listen on, e.g. 127.0.0.1 to allow only
+     *            local requests
+     * @param port The TCP port
+     * @throws IOException Could not open the port
+     */
+    public synchronized void start (final String address, final int port) throws IOException
+    {
+        this.stop ();
+
+        final HttpServer newServer = HttpServer.create (new InetSocketAddress (address, port), 0);
+        newServer.createContext ("/metrics", this::handle);
+        // Requests are handled one after the other by the dispatcher thread
+        newServer.setExecutor (null);
+        newServer.start ();
+        this.server = newServer;
+    }
+
+
+    /**
+     * Stop the server.
+     */
+    public synchronized void stop ()
+    {
+        if (this.server == null)
+            return;
+        this.server.stop (0);
+        this.server = null;
+    }
+
+
+    /**
+     * Formats all metrics.
+     *
+     * @return The metrics in the Prometheus text format
+     */
+    public String format ()
+    {
+        final StringBuilder sb = new StringBuilder (8192);
+
+        appendCounter (sb, "udp_packets_received_total", "Received UDP packets.", this.metrics.getUdpReceivedCount ());
+        appendCounter (sb, "udp_packets_dropped_total", "Received UDP packets which were malformed, superseded or could not be parsed.", this.metrics.getUdpDroppedCount ());
+        appendCounter (sb, "messages_lost_total", "Messages which were detected as lost by their sequence number, incl. the ones which arrived later.", this.metrics.getLostCount ());
+        appendCounter (sb, "messages_recovered_total", "Messages which were detected as lost but arrived later.", this.metrics.getRecoveredCount ());
+        appendCounter (sb, "messages_reordered_total", "Messages which arrived after a newer one and were dropped.", this.metrics.getReorderCount ());
+        appendCounter (sb, "parse_errors_total", "Messages which were malformed or could not be parsed.", this.metrics.getParseErrorCount ());
+        appendCounter (sb, "redraws_total", "Frames rendered by the virtual display.", this.metrics.getRenderCount ());
+        appendCounter (sb, "usb_frames_total", "Frames sent to the USB displays.", this.metrics.getUsbFrameCount ());
+        appendCounter (sb, "usb_bytes_total", "Bytes sent to the USB displays.", this.metrics.getUsbByteCount ());
+        appendCounter (sb, "usb_transfer_errors_total", "Failed USB transfers.", this.metrics.getUsbErrorCount ());
+        appendCounter (sb, "usb_connects_total", "Connections to USB displays, more than the number of devices means reconnects.", this.metrics.getUsbConnectCount ());
+
+        appendHeader (sb, "cache_hits_total", "Requests which were found in a cache.", "counter");
+        appendSample (sb, "cache_hits_total{cache=\"icon\"}", IconAtlas.getHitCount ());
+        appendSample (sb, "cache_hits_total{cache=\"font\"}", FontCache.getHitCount ());
+        appendHeader (sb, "cache_misses_total", "Requests which were not found in a cache.", "counter");
+        appendSample (sb, "cache_misses_total{cache=\"icon\"}", IconAtlas.getMissCount ());
+        appendSample (sb, "cache_misses_total{cache=\"font\"}", FontCache.getMissCount ());
+
+        appendHeader (sb, "stage_duration_seconds", "Duration of the stages of the display pipeline.", "histogram");
+        for (final PipelineStage stage: STAGES)
+        {
+            final LatencyHistogram histogram = this.metrics.getHistogram (stage);
+            final String label = stage.name ().toLowerCase (Locale.US);
+            for (final long bound: BUCKET_BOUNDS)
+                sb.append (PREFIX).append ("stage_duration_seconds_bucket{stage=\"").append (label).append ("\",le=\"").append (formatSeconds (bound - 1)).append ("\"} ").append (histogram.getCountBelow (bound)).append ('\n');
+            // The total is calculated from the buckets as well, therefore it is consistent with
+            // them even while values are recorded
+            final long count = histogram.getCountBelow (Long.MAX_VALUE);
+            sb.append (PREFIX).append ("stage_duration_seconds_bucket{stage=\"").append (label).append ("\",le=\"+Inf\"} ").append (count).append ('\n');
+            sb.append (PREFIX).append ("stage_duration_seconds_sum{stage=\"").append (label).append ("\"} ").append (formatSeconds (histogram.getSum ())).append ('\n');
+            sb.append (PREFIX).append ("stage_duration_seconds_count{stage=\"").append (label).append ("\"} ").append (count).append ('\n');
+        }
+
+        return sb.toString ();
+    }
+
+
+    /**
+     * Handles a request.
+     *
+     * @param exchange The request and response
+     * @throws IOException Could not send the response
+     */
+    private void handle (final HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            if (!"GET".equals (exchange.getRequestMethod ()))
+            {
+                exchange.sendResponseHeaders (405, -1);
+                return;
+            }
+
+            final byte [] body = this.format ().getBytes (StandardCharsets.UTF_8);
+            exchange.getResponseHeaders ().set ("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders (200, body.length);
+            try (final OutputStream out = exchange.getResponseBody ())
+            {
+                out.write (body);
+            }
+        }
+        finally
+        {
+            exchange.close ();
+        }
+    }
+
+
+    /**
+     * Appends a counter with its description.
+     *
+     * @param sb Where to append
+     * @param name The name of the counter without prefix
+     * @param help The description
+     * @param value The value
+     */
+    private static void appendCounter (final StringBuilder sb, final String name, final String help, final long value)
+    {
+        appendHeader (sb, name, help, "counter");
+        appendSample (sb, name, value);
+    }
+
+
+    /**
+     * Appends the description and type of a metric.
+     *
+     * @param sb Where to append
+     * @param name The name of the metric without prefix
+     * @param help The description
+     * @param type The type of the metric
+     */
+    private static void appendHeader (final StringBuilder sb, final String name, final String help, final String type)
+    {
+        sb.append ("# HELP ").append (PREFIX).append (name).append (' ').append (help).append ('\n');
+        sb.append ("# TYPE ").append (PREFIX).append (name).append (' ').append (type).append ('\n');
+    }
+
+
+    /**
+     * Appends a value.
+     *
+     * @param sb Where to append
+     * @param name The name of the metric without prefix, incl. the labels
+     * @param value The value
+     */
+    private static void appendSample (final StringBuilder sb, final String name, final long value)
+    {
+        sb.append (PREFIX).append (name).append (' ').append (value).append ('\n');
+    }
+
+
+    /**
+     * Formats microseconds as seconds.
+     *
+     * @param micros The microseconds
+     * @return The formatted seconds
+     */
+    private static String formatSeconds (final long micros)
+    {
+        return String.format (Locale.US, "%.6f", Double.valueOf (micros / 1_000_000.0));
+    }
+
+
+    /**
+     * Creates the bounds of the histogram buckets.
+     *
+     * @param firstExponent The exponent of the smallest power of 2
+     * @param lastExponent The exponent of the largest power of 2
+     * @return The bounds in microseconds
+     */
+    private static long [] createBucketBounds (final int firstExponent, final int lastExponent)
+    {
+        final long [] bounds = new long [lastExponent - firstExponent + 1];
+        for (int i = 0; i < bounds.length; i++)
+            bounds[i] = 1L << firstExponent + i;
+        return bounds;
+    }
+}
@@ -0,0 +1,375 @@
+package push22bitwig.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Collects the timing of the stages of the display pipeline: receiving, parsing, model update,
+ * rendering, encoding and USB transfer. Additionally, the end-to-end latency from receiving a
+ * message till the resulting frame has been transfered to the device is measured. Messages with a
+ * sequence number are counted if they are lost or arrive out of order. Furthermore, the received
+ * and dropped UDP packets, parse errors, rendered frames and the USB transfers are counted. All
+ * methods are lock-free and can be called from any thread.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class PipelineMetrics
+{
+    private static final PipelineStage [] STAGES         = PipelineStage.values ();
+
+    private final LatencyHistogram []     histograms     = new LatencyHistogram [STAGES.length];
+    private final AtomicLong              receivedTime   = new AtomicLong ();
+    private final AtomicLong              renderedTime   = new AtomicLong ();
+    private final AtomicLong              lostCount      = new AtomicLong ();
+    private final AtomicLong              recoveredCount = new AtomicLong ();
+    private final AtomicLong              reorderCount   = new AtomicLong ();
+    private final AtomicLong              udpReceived    = new AtomicLong ();
+    private final AtomicLong              udpDropped     = new AtomicLong ();
+    private final AtomicLong              parseErrors    = new AtomicLong ();
+    private final AtomicLong              renderCount    = new AtomicLong ();
+    private final AtomicLong              usbFrames      = new AtomicLong ();
+    private final AtomicLong              usbBytes       = new AtomicLong ();
+    private final AtomicLong              usbErrors      = new AtomicLong ();
+    private final AtomicLong              usbConnects    = new AtomicLong ();
+
+
+    /**
+     * Constructor.
+     */
+    public PipelineMetrics ()
+    {
+        for (int i = 0; i < STAGES.length; i++)
+            this.histograms[i] = new LatencyHistogram ();
+    }
+
+
+    /**
+     * Record the duration of a stage.
+     *
+     * @param stage The stage
+     * @param startNanos The start of the stage, retrieved from System.nanoTime()
+     * @param endNanos The end of the stage, retrieved from System.nanoTime()
+     */
+    public void record (final PipelineStage stage, final long startNanos, final long endNanos)
+    {
+        this.histograms[stage.ordinal ()].recordNanos (endNanos - startNanos);
+    }
+
+
+    /**
+     * Marks that a message has been received, which will result in a new frame.
+     *
+     * @param nanos The time of the receiption, retrieved from System.nanoTime()
+     */
+    public void messageReceived (final long nanos)
+    {
+        this.receivedTime.set (nanos);
+    }
+
+
+    /**
+     * Marks that a frame has been rendered. If it was caused by a received message, the frame
+     * inherits the time of the receiption.
+     */
+    public void frameRendered ()
+    {
+        this.renderCount.incrementAndGet ();
+        final long received = this.receivedTime.getAndSet (0);
+        if (received != 0)
+            this.renderedTime.set (received);
+    }
+
+
+    /**
+     * Marks that a frame has been transfered to the device. If it is the first transfer of a frame
+     * caused by a received message, the end-to-end latency is recorded.
+     *
+     * @param nanos The time when the transfer finished, retrieved from System.nanoTime()
+     */
+    public void frameTransfered (final long nanos)
+    {
+        final long received = this.renderedTime.getAndSet (0);
+        if (received != 0)
+            this.record (PipelineStage.END_TO_END, received, nanos);
+    }
+
+
+    /**
+     * Marks that messages have been lost, detected by a gap in the sequence numbers.
+     *
+     * @param count The number of lost messages
+     */
+    public void messagesLost (final long count)
+    {
+        this.lostCount.addAndGet (count);
+    }
+
+
+    /**
+     * Marks that a message which was counted as lost arrived later. The lost messages are not
+     * decreased, which keeps all counts increasing.
+     */
+    public void messageRecovered ()
+    {
+        this.recoveredCount.incrementAndGet ();
+    }
+
+
+    /**
+     * Marks that a message arrived after a newer message and has therefore been dropped.
+     */
+    public void messageReordered ()
+    {
+        this.reorderCount.incrementAndGet ();
+    }
+
+
+    /**
+     * Marks that a UDP packet has been received.
+     */
+    public void udpPacketReceived ()
+    {
+        this.udpReceived.incrementAndGet ();
+    }
+
+
+    /**
+     * Marks that a received UDP packet was not handled, since it was malformed, superseded by a
+     * newer message or could not be parsed.
+     */
+    public void udpPacketDropped ()
+    {
+        this.udpDropped.incrementAndGet ();
+    }
+
+
+    /**
+     * Marks that a message was malformed or could not be parsed.
+     */
+    public void parseError ()
+    {
+        this.parseErrors.incrementAndGet ();
+    }
+
+
+    /**
+     * Marks that a frame has been sent to a USB display.
+     *
+     * @param bytes The number of transfered bytes
+     * @param isSuccess False if the transfer failed
+     */
+    public void usbTransfered (final int bytes, final boolean isSuccess)
+    {
+        this.usbFrames.incrementAndGet ();
+        this.usbBytes.addAndGet (bytes);
+        if (!isSuccess)
+            this.usbErrors.incrementAndGet ();
+    }
+
+
+    /**
+     * Marks that a USB display has been connected.
+     */
+    public void usbConnected ()
+    {
+        this.usbConnects.incrementAndGet ();
+    }
+
+
+    /**
+     * Get the number of messages which were detected as lost, incl. the ones which arrived later.
+     *
+     * @return The number of messages
+     */
+    public long getLostCount ()
+    {
+        return this.lostCount.get ();
+    }
+
+
+    /**
+     * Get the number of messages which were counted as lost but arrived later.
+     *
+     * @return The number of messages
+     */
+    public long getRecoveredCount ()
+    {
+        return this.recoveredCount.get ();
+    }
+
+
+    /**
+     * Get the number of messages which arrived out of order or twice and were dropped.
+     *
+     * @return The number of messages
+     */
+    public long getReorderCount ()
+    {
+        return this.reorderCount.get ();
+    }
+
+
+    /**
+     * Get the number of received UDP packets.
+     *
+     * @return The number of packets
+     */
+    public long getUdpReceivedCount ()
+    {
+        return this.udpReceived.get ();
+    }
+
+
+    /**
+     * Get the number of UDP packets which were not handled.
+     *
+     * @return The number of packets
+     */
+    public long getUdpDroppedCount ()
+    {
+        return this.udpDropped.get ();
+    }
+
+
+    /**
+     * Get the number of messages which were malformed or could not be parsed.
+     *
+     * @return The number of messages
+     */
+    public long getParseErrorCount ()
+    {
+        return this.parseErrors.get ();
+    }
+
+
+    /**
+     * Get the number of rendered frames.
+     *
+     * @return The number of frames
+     */
+    public long getRenderCount ()
+    {
+        return this.renderCount.get ();
+    }
+
+
+    /**
+     * Get the number of frames sent to the USB displays.
+     *
+     * @return The number of frames
+     */
+    public long getUsbFrameCount ()
+    {
+        return this.usbFrames.get ();
+    }
+
+
+    /**
+     * Get the number of bytes sent to the USB displays.
+     *
+     * @return The number of bytes
+     */
+    public long getUsbByteCount ()
+    {
+        return this.usbBytes.get ();
+    }
+
+
+    /**
+     * Get the number of failed USB transfers.
+     *
+     * @return The number of transfers
+     */
+    public long getUsbErrorCount ()
+    {
+        return this.usbErrors.get ();
+    }
+
+
+    /**
+     * Get the number of connections to USB displays. If it is higher than the number of devices,
+     * displays have been reconnected.
+     *
+     * @return The number of connections
+     */
+    public long getUsbConnectCount ()
+    {
+        return this.usbConnects.get ();
+    }
+
+
+    /**
+     * Get the histogram of a stage.
+     *
+     * @param stage The stage
+     * @return The histogram
+     */
+    public LatencyHistogram getHistogram (final PipelineStage stage)
+    {
+        return this.histograms[stage.ordinal ()];
+    }
+
+
+    /**
+     * Removes all recorded values.
+     */
+    public void reset ()
+    {
+        for (final LatencyHistogram histogram: this.histograms)
+            histogram.reset ();
+        this.lostCount.set (0);
+        this.recoveredCount.set (0);
+        this.reorderCount.set (0);
+        this.udpReceived.set (0);
+        this.udpDropped.set (0);
+        this.parseErrors.set (0);
+        this.renderCount.set (0);
+        this.usbFrames.set (0);
+        this.usbBytes.set (0);
+        this.usbErrors.set (0);
+        // The connections are kept, since they are compared to the number of devices
+    }
+
+
+    /**
+     * Formats the percentiles of all stages as a text table.
+     *
+     * @return The formatted text
+     */
+    public String formatSummary ()
+    {
+        final StringBuilder sb = new StringBuilder ();
+        sb.append (String.format (Locale.US, "%-13s %9s %9s %9s %9s %9s %9s%n", "Stage [us]", "Count", "Mean", "P50", "P90", "P99", "Max"));
+        for (final PipelineStage stage: STAGES)
+        {
+            final LatencyHistogram h = this.getHistogram (stage);
+            sb.append (String.format (Locale.US, "%-13s %9d %9.1f %9d %9d %9d %9d%n", stage.name (), Long.valueOf (h.getCount ()), Double.valueOf (h.getMean ()), Long.valueOf (h.getPercentile (50)), Long.valueOf (h.getPercentile (90)), Long.valueOf (h.getPercentile (99)), Long.valueOf (h.getMax ())));
+        }
+        sb.append (String.format (Locale.US, "Lost messages: %d, reordered messages: %d%n", Long.valueOf (this.getLostCount () - this.getRecoveredCount ()), Long.valueOf (this.getReorderCount ())));
+        sb.append (String.format (Locale.US, "UDP packets: %d, dropped: %d, parse errors: %d%n", Long.valueOf (this.getUdpReceivedCount ()), Long.valueOf (this.getUdpDroppedCount ()), Long.valueOf (this.getParseErrorCount ())));
+        sb.append (String.format (Locale.US, "Rendered frames: %d, USB frames: %d, USB errors: %d%n", Long.valueOf (this.getRenderCount ()), Long.valueOf (this.getUsbFrameCount ()), Long.valueOf (this.getUsbErrorCount ())));
+        return sb.toString ();
+    }
+
+
+    /**
+     * Writes the percentiles of all stages as comma separated values.
+     *
+     * @param writer Where to write to
+     * @throws IOException Could not write
+     */
+    public void writeCSV (final Writer writer) throws IOException
+    {
+        writer.write ("stage,count,mean_us,p50_us,p90_us,p99_us,p999_us,max_us\n");
+        for (final PipelineStage stage: STAGES)
+        {
+            final LatencyHistogram h = this.getHistogram (stage);
+            writer.write (String.format (Locale.US, "%s,%d,%.1f,%d,%d,%d,%d,%d\n", stage.name (), Long.valueOf (h.getCount ()), Double.valueOf (h.getMean ()), Long.valueOf (h.getPercentile (50)), Long.valueOf (h.getPercentile (90)), Long.valueOf (h.getPercentile (99)), Long.valueOf (h.getPercentile (99.9)), Long.valueOf (h.getMax ())));
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package push22bitwig.metrics;
+
+/**
+ * The measured stages of the pipeline from receiving a message to sending a frame to the device.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public enum PipelineStage
+{
+    /**
+     * Handling of a received message. The stages are nested, not sequential: this one contains
+     * parsing, the model update and the redraw which the model listeners trigger synchronously.
+     */
+    RECEIVE,
+    /** Parsing the grid elements from a message. */
+    PARSE,
+    /** Setting the grid elements in the model without the notified listeners. */
+    MODEL_UPDATE,
+    /** Drawing the grid into the display image. */
+    RENDER,
+    /** Encoding the display image into the USB transfer buffer. */
+    ENCODE,
+    /** The USB bulk transfer. */
+    USB_TRANSFER,
+    /** From receiving a message till the resulting frame is transfered to the device. */
+    END_TO_END
+}
@@ -0,0 +1,34 @@
+package push22bitwig.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * Flight recorder event for transfering a frame to the display via USB.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+@Name ("push22bitwig.UsbTransferCompleted")
+@Label ("USB Transfer Completed")
+@Description ("Transfer of a frame to the display via USB")
+@Category ("Push2Display")
+@StackTrace (false)
+public class UsbTransferCompletedEvent extends Event
+{
+    /** The number of transfered bytes. */
+    @Label ("Bytes")
+    @DataAmount
+    public int bytes;
+
+    /** The result code of the transfer, 0 on success. */
+    @Label ("Result")
+    public int result;
+}
@@ -1,17 +1,19 @@
 package push22bitwig.model;
 
+import push22bitwig.metrics.PipelineMetrics;
+import push22bitwig.metrics.PipelineStage;
+import push22bitwig.model.grid.AbstractGridElement;
+import push22bitwig.model.grid.ChannelGridElement;
 import push22bitwig.model.grid.GridElement;
 
 import javafx.application.Platform;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.value.ChangeListener;
-import javafx.collections.FXCollections;
-import javafx.collections.ListChangeListener;
-import javafx.collections.ObservableList;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
 /**
@@ -23,19 +25,72 @@ import java.util.List;
  */
 public class DisplayModel
 {
-    private final SimpleStringProperty        logMessage     = new SimpleStringProperty ();
-    private final SimpleBooleanProperty       shutdownSignal = new SimpleBooleanProperty ();
-    private final ObservableList<GridElement> gridElements   = FXCollections.observableArrayList (new ArrayList<> (8));
+    private final SimpleStringProperty  logMessage      = new SimpleStringProperty ();
+    private final SimpleBooleanProperty shutdownSignal  = new SimpleBooleanProperty ();
+    private final List<GridElement>     gridElements    = new ArrayList<> (8);
+    private final Object                gridLock        = new Object ();
+    private final List<Runnable>        gridListeners   = new CopyOnWriteArrayList<> ();
+    private final List<Runnable>        sampleListeners = new CopyOnWriteArrayList<> ();
+    private final VuMeter []            vuMeters        = new VuMeter [8];
+    private final PipelineMetrics       metrics         = new PipelineMetrics ();
+    private final boolean               isHeadless;
 
 
     /**
-     * Adds a listener for grid element changes
+     * Constructor.
+     */
+    public DisplayModel ()
+    {
+        this (false);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param isHeadless If true, there is no JavaFX user interface and log messages are only
+     *            written to the console
+     */
+    public DisplayModel (final boolean isHeadless)
+    {
+        this.isHeadless = isHeadless;
+
+        for (int i = 0; i < this.vuMeters.length; i++)
+            this.vuMeters[i] = new VuMeter (AbstractGridElement.getMaxValue ());
+    }
+
+
+    /**
+     * Adds a listener for grid element changes. It is called each time a grid was received, even
+     * if the same (reused) elements were filled in place.
      *
      * @param listener A listener
      */
-    public void addGridElementChangeListener (final ListChangeListener<? super GridElement> listener)
+    public void addGridElementChangeListener (final Runnable listener)
     {
-        this.gridElements.addListener (listener);
+        this.gridListeners.add (listener);
+    }
+
+
+    /**
+     * Adds a listener which is called when samples were added to a waveform element of the current
+     * grid, while the grid itself has not changed.
+     *
+     * @param listener A listener
+     */
+    public void addSampleListener (final Runnable listener)
+    {
+        this.sampleListeners.add (listener);
+    }
+
+
+    /**
+     * Notifies the sample listeners that samples were added to a waveform element.
+     */
+    public void samplesReceived ()
+    {
+        for (int i = 0; i < this.sampleListeners.size (); i++)
+            this.sampleListeners.get (i).run ();
     }
 
 
@@ -68,6 +123,12 @@ public class DisplayModel
      */
     public synchronized void addLogMessage (final String message)
     {
+        if (this.isHeadless)
+        {
+            System.out.println (message);
+            return;
+        }
+
         Platform.runLater ( () -> {
             final String string = this.logMessage.get ();
             final StringBuilder sb = new StringBuilder ();
@@ -89,23 +150,133 @@ public class DisplayModel
 
 
     /**
-     * Sets the grid elements.
+     * Sets the grid elements and notifies the listeners.
      *
      * @param elements The elements to set
      */
     public void setGridElements (final List<GridElement> elements)
     {
-        this.gridElements.setAll (elements);
+        final long start = System.nanoTime ();
+        // Neither addAll nor iterators are used since they create objects on each grid
+        synchronized (this.gridLock)
+        {
+            this.gridElements.clear ();
+            for (int i = 0; i < elements.size (); i++)
+            {
+                final GridElement element = elements.get (i);
+                this.gridElements.add (element);
+                if (i < this.vuMeters.length)
+                    this.updateVuMeter (element, this.vuMeters[i]);
+            }
+            for (int i = elements.size (); i < this.vuMeters.length; i++)
+                this.vuMeters[i].reset ();
+        }
+        this.metrics.record (PipelineStage.MODEL_UPDATE, start, System.nanoTime ());
+
+        for (int i = 0; i < this.gridListeners.size (); i++)
+            this.gridListeners.get (i).run ();
+    }
+
+
+    /**
+     * Advances the VU meters of all columns. Call it from the frame loop.
+     *
+     * @param now The current time in nanoseconds (see {@link System#nanoTime()})
+     * @return True if at least one of the meters has changed and needs to be redrawn
+     */
+    public boolean advanceVuMeters (final long now)
+    {
+        synchronized (this.gridLock)
+        {
+            boolean hasChanged = false;
+            for (final VuMeter vuMeter: this.vuMeters)
+                hasChanged |= vuMeter.advance (now);
+            return hasChanged;
+        }
+    }
+
+
+    /**
+     * Feeds the VU value of a channel element into the meter of its column and attaches the meter
+     * to the element, so that it draws the level of the meter.
+     *
+     * @param element The element
+     * @param vuMeter The meter of the column of the element
+     */
+    private void updateVuMeter (final GridElement element, final VuMeter vuMeter)
+    {
+        if (element instanceof ChannelGridElement)
+        {
+            final ChannelGridElement channelElement = (ChannelGridElement) element;
+            vuMeter.setSample (channelElement.getVuValue ());
+            channelElement.setVuMeter (vuMeter);
+        }
+        else
+            vuMeter.reset ();
+    }
+
+
+    /**
+     * Get the lock which guards the grid elements. Reused elements must only be filled in place
+     * while holding it and {@link #getGridElementCount()} and {@link #getGridElement(int)} must
+     * only be called while holding it.
+     *
+     * @return The lock
+     */
+    public Object getGridLock ()
+    {
+        return this.gridLock;
+    }
+
+
+    /**
+     * Get the number of grid elements. Only call it while holding the grid lock.
+     *
+     * @return The number of elements
+     */
+    public int getGridElementCount ()
+    {
+        return this.gridElements.size ();
+    }
+
+
+    /**
+     * Get a grid element. Only call it while holding the grid lock and do not keep it after
+     * releasing the lock, since the element might be filled in place with the next grid.
+     *
+     * @param index The index of the element
+     * @return The element
+     */
+    public GridElement getGridElement (final int index)
+    {
+        return this.gridElements.get (index);
+    }
+
+
+    /**
+     * Get the timing metrics of the display pipeline.
+     *
+     * @return The metrics
+     */
+    public PipelineMetrics getMetrics ()
+    {
+        return this.metrics;
     }
 
 
     /**
-     * Get the grid elements.
+     * Get snapshots of the grid elements, which are not changed by the next received grid.
      *
      * @return The elemtens
      */
     public List<GridElement> getGridElements ()
     {
-        return new ArrayList<GridElement> (this.gridElements);
+        synchronized (this.gridLock)
+        {
+            final List<GridElement> snapshots = new ArrayList<> (this.gridElements.size ());
+            for (final GridElement element: this.gridElements)
+                snapshots.add (element.snapshot ());
+            return snapshots;
+        }
     }
 }
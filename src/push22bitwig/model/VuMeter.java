@@ -0,0 +1,125 @@
+package push22bitwig.model;
+
+/**
+ * The ballistics of the VU meter of one column. The received VU values are only samples of the
+ * level, which might arrive at a much lower rate than the frame rate of the display. The displayed
+ * level follows the samples with a fast attack and falls with a constant speed. Additionally, the
+ * highest level is held for a while and then falls as well. The meter is advanced by the frame
+ * loop, therefore the display looks fluid even if the samples are sparse.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class VuMeter
+{
+    /** The time constant in nanoseconds with which the level rises to a higher sample. */
+    private static final double ATTACK_TIME    = 10_000_000.0;
+    /** The time in nanoseconds in which the level falls over the full range. */
+    private static final double FALL_TIME      = 1_500_000_000.0;
+    /** The time in nanoseconds for which the peak is held before it falls. */
+    private static final long   PEAK_HOLD_TIME = 1_000_000_000L;
+
+    private final double        maxValue;
+    private double              target;
+    private double              value;
+    private double              peak;
+    private long                peakTime;
+    private long                lastTime;
+
+
+    /**
+     * Constructor.
+     *
+     * @param maxValue The maximum value of the samples
+     */
+    public VuMeter (final double maxValue)
+    {
+        this.maxValue = maxValue;
+    }
+
+
+    /**
+     * Set the latest received sample. The displayed level moves towards it with the next calls to
+     * {@link #advance(long)}.
+     *
+     * @param sample The VU value
+     */
+    public void setSample (final int sample)
+    {
+        this.target = Math.max (0, Math.min (sample, this.maxValue));
+    }
+
+
+    /**
+     * Drops the level and the peak immediately, e.g. if the column does not show a channel anymore.
+     */
+    public void reset ()
+    {
+        this.target = 0;
+        this.value = 0;
+        this.peak = 0;
+    }
+
+
+    /**
+     * Moves the level and the peak according to the elapsed time since the last call.
+     *
+     * @param now The current time in nanoseconds (see {@link System#nanoTime()})
+     * @return True if the level or the peak has changed
+     */
+    public boolean advance (final long now)
+    {
+        final long elapsed = now - this.lastTime;
+        final boolean isFirst = this.lastTime == 0;
+        this.lastTime = now;
+        if (isFirst || elapsed <= 0)
+            return false;
+
+        final double oldValue = this.value;
+        final double oldPeak = this.peak;
+        final double fall = this.maxValue * elapsed / FALL_TIME;
+
+        if (this.target > this.value)
+        {
+            this.value += (this.target - this.value) * (1 - Math.exp (-elapsed / ATTACK_TIME));
+            // Snap to the sample instead of approaching it forever
+            if (this.target - this.value < 0.5)
+                this.value = this.target;
+        }
+        else
+            this.value = Math.max (this.target, this.value - fall);
+
+        if (this.value >= this.peak)
+        {
+            this.peak = this.value;
+            this.peakTime = now;
+        }
+        else if (now - this.peakTime > PEAK_HOLD_TIME)
+            this.peak = Math.max (this.value, this.peak - fall);
+
+        return this.value != oldValue || this.peak != oldPeak;
+    }
+
+
+    /**
+     * Get the displayed level.
+     *
+     * @return The level in the range of the samples
+     */
+    public double getValue ()
+    {
+        return this.value;
+    }
+
+
+    /**
+     * Get the displayed peak level.
+     *
+     * @return The peak in the range of the samples
+     */
+    public double getPeak ()
+    {
+        return this.peak;
+    }
+}
@@ -1,14 +1,19 @@
 package push22bitwig.model.grid;
 
-import push22bitwig.LayoutSettings;
+import push22bitwig.IconAtlas;
+import push22bitwig.Theme;
+import push22bitwig.util.BoundedCache;
 
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.Label;
 import java.awt.font.LineMetrics;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
 
 
 /**
@@ -21,15 +26,18 @@ import java.awt.geom.Rectangle2D;
 public abstract class AbstractGridElement implements GridElement
 {
     /** The maximum possible value for a parameter. */
-    private static double   maxValue = 1024;
+    private static double                            maxValue = 1024;
 
-    private final String    name;
-    private final String    icon;
-    private final Color     color;
-    private final boolean   isSelected;
+    /** The descent of the text "Hg" per font, which is needed for each drawn text. */
+    private static final BoundedCache<Font, Integer> DESCENTS = new BoundedCache<> (32);
 
-    protected final boolean isMenuSelected;
-    protected final String  menuName;
+    private String                                   name;
+    private String                                   icon;
+    private Color                                    color;
+    private boolean                                  isSelected;
+
+    protected boolean                                isMenuSelected;
+    protected String                                 menuName;
 
 
     /**
@@ -43,6 +51,22 @@ public abstract class AbstractGridElement implements GridElement
      * @param isSelected True if the grid element is selected
      */
     public AbstractGridElement (final String menuName, final boolean isMenuSelected, final String icon, final String name, final Color color, final boolean isSelected)
+    {
+        this.set (menuName, isMenuSelected, icon, name, color, isSelected);
+    }
+
+
+    /**
+     * Replaces the values of the element, used to fill a reused element in place.
+     *
+     * @param menuName The text for the menu
+     * @param isMenuSelected True if the menu is selected
+     * @param icon The icon to use in the header, may be null
+     * @param name The of the grid element (track name, parameter name, etc.)
+     * @param color The color to use for the header, may be null
+     * @param isSelected True if the grid element is selected
+     */
+    protected final void set (final String menuName, final boolean isMenuSelected, final String icon, final String name, final Color color, final boolean isSelected)
     {
         this.name = name;
         this.icon = icon;
@@ -111,7 +135,7 @@ public abstract class AbstractGridElement implements GridElement
      */
     public static void drawTextInBounds (final Graphics2D g, final String text, final int x, final int y, final int width, final int height, final int alignment)
     {
-        drawTextInBounds (g, text, x, y, width, height, alignment, getTextDescent (g, "Hg"));
+        drawTextInBounds (g, text, x, y, width, height, alignment, getFontDescent (g));
     }
 
 
@@ -164,7 +188,7 @@ public abstract class AbstractGridElement implements GridElement
         if (text == null || text.length () == 0)
             return;
         final Dimension dim = getTextDims (g, text);
-        g.drawString (text, x, y + height - (height - dim.height) / 2 - getTextDescent (g, "Hg"));
+        g.drawString (text, x, y + height - (height - dim.height) / 2 - getFontDescent (g));
     }
 
 
@@ -200,17 +224,74 @@ public abstract class AbstractGridElement implements GridElement
     }
 
 
+    /**
+     * Get the distance from the baseline of the text "Hg" to its bottom edge in the current font
+     * of the graphics context. The descent is measured only once per font. It depends on the
+     * rendering hints as well but these are the same for all drawing of the display.
+     *
+     * @param g The graphics context in which to draw
+     * @return The descent
+     */
+    private static int getFontDescent (final Graphics2D g)
+    {
+        final Font font = g.getFont ();
+        final Integer descent = DESCENTS.getIfPresent (font);
+        if (descent != null)
+            return descent.intValue ();
+        try
+        {
+            return DESCENTS.get (font, f -> Integer.valueOf (getTextDescent (g, "Hg"))).intValue ();
+        }
+        catch (final IOException ex)
+        {
+            // Cannot happen, measuring does not throw exceptions
+            return getTextDescent (g, "Hg");
+        }
+    }
+
+
+    /**
+     * Draws an icon centered into the given bounds. Nothing is drawn if the icon is not loaded yet.
+     * The display is redrawn as soon as it is available. If the graphics context is scaled (e.g.
+     * for a high resolution preview) an icon rendered in the matching resolution is drawn.
+     *
+     * @param gc The graphics context
+     * @param iconName The name (absolute path) of the SVG image of the icon
+     * @param color The color of the icon
+     * @param left The left bound
+     * @param top The top bound
+     * @param width The width of the bounds
+     * @param height The height of the bounds
+     * @throws IOException Could not load the icon
+     */
+    protected static void drawIcon (final Graphics2D gc, final String iconName, final Color color, final int left, final int top, final int width, final int height) throws IOException
+    {
+        final int scale = Math.max (1, Math.min (IconAtlas.MAX_SCALE, (int) Math.round (gc.getTransform ().getScaleX ())));
+        final BufferedImage icon = IconAtlas.getIcon (iconName, color, scale);
+        if (icon == null)
+            return;
+        if (scale == 1)
+        {
+            gc.drawImage (icon, left + (width - icon.getWidth ()) / 2, top + (height - icon.getHeight ()) / 2, null);
+            return;
+        }
+        final int iconWidth = icon.getWidth () / scale;
+        final int iconHeight = icon.getHeight () / scale;
+        gc.drawImage (icon, left + (width - iconWidth) / 2, top + (height - iconHeight) / 2, iconWidth, iconHeight, null);
+    }
+
+
     /**
      * Draws a menu at the top of the element.
      *
      * @param gc The graphics context
      * @param left The left bound of the menus drawing area
      * @param width The width of the menu
-     * @param layoutSettings The layout settings to use
+     * @param theme The colors and font to use
      */
-    protected void drawMenu (final Graphics2D gc, final int left, final int width, final LayoutSettings layoutSettings)
+    protected void drawMenu (final Graphics2D gc, final int left, final int width, final Theme theme)
     {
-        final Color borderColor = layoutSettings.getBorderColor ();
+        final Color borderColor = theme.getBorderColor ();
         if (this.menuName == null || this.menuName.length () == 0)
         {
             // Remove the 2 pixels of the previous menus border line
@@ -219,7 +300,7 @@ public abstract class AbstractGridElement implements GridElement
             return;
         }
 
-        final Color textColor = layoutSettings.getTextColor ();
+        final Color textColor = theme.getTextColor ();
 
         gc.setColor (this.isMenuSelected ? textColor : borderColor);
         gc.fillRect (left, 0, width, MENU_HEIGHT - 1);
@@ -228,7 +309,7 @@ public abstract class AbstractGridElement implements GridElement
         gc.fillRect (left, MENU_HEIGHT - 2, width + SEPARATOR_SIZE, 1);
 
         gc.setColor (this.isMenuSelected ? borderColor : textColor);
-        gc.setFont (layoutSettings.getTextFont (UNIT));
+        gc.setFont (theme.getTextFont (UNIT));
         drawTextInBounds (gc, this.menuName, left, 0, width, UNIT + SEPARATOR_SIZE, Label.CENTER);
     }
 
@@ -0,0 +1,273 @@
+package push22bitwig.model.grid;
+
+import push22bitwig.Theme;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+
+/**
+ * An element in the grid which displays a bitmap sent by the script, e.g. a waveform, a step
+ * sequence or a spectrum. The bitmap is drawn at the top left of the column and is clipped to it.
+ * The pixels are stored as raw values: an index into the palette for the 1 bit and 4 bit formats
+ * or a RGB565 color. They are converted when the bitmap is drawn, therefore a new palette does not
+ * require to send the pixels again.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class BitmapGridElement implements PixelGridElement
+{
+    /** 1 bit per pixel, index into a palette of 2 colors. */
+    public static final int FORMAT_1BIT   = 0;
+    /** 4 bit per pixel, index into a palette of 16 colors. */
+    public static final int FORMAT_4BIT   = 1;
+    /** 16 bit RGB565 colors. */
+    public static final int FORMAT_RGB565 = 2;
+
+    private int             format        = FORMAT_1BIT;
+    private int             width         = 0;
+    private int             height        = 0;
+    private short []        pixels        = new short [0];
+    private final int []    paletteARGB   = new int [16];
+    private final short []  palette565    = new short [16];
+
+
+    /**
+     * Constructor. Creates an empty bitmap.
+     */
+    public BitmapGridElement ()
+    {
+        // Intentionally empty
+    }
+
+
+    /**
+     * Constructor. Creates a copy of a bitmap.
+     *
+     * @param bitmap The bitmap to copy
+     */
+    public BitmapGridElement (final BitmapGridElement bitmap)
+    {
+        this.copy (bitmap);
+    }
+
+
+    /**
+     * Replaces the pixels and the palette with the ones of another bitmap.
+     *
+     * @param bitmap The bitmap to copy
+     */
+    public void copy (final BitmapGridElement bitmap)
+    {
+        this.format = bitmap.format;
+        this.width = bitmap.width;
+        this.height = bitmap.height;
+        if (this.pixels.length == bitmap.pixels.length)
+            System.arraycopy (bitmap.pixels, 0, this.pixels, 0, this.pixels.length);
+        else
+            this.pixels = bitmap.pixels.clone ();
+        System.arraycopy (bitmap.paletteARGB, 0, this.paletteARGB, 0, this.paletteARGB.length);
+        System.arraycopy (bitmap.palette565, 0, this.palette565, 0, this.palette565.length);
+    }
+
+
+    /**
+     * Set the format and size of the bitmap. If the size changes, all pixels are cleared.
+     *
+     * @param format The format, one of the FORMAT_ constants
+     * @param width The width in pixels
+     * @param height The height in pixels
+     */
+    public void setFormat (final int format, final int width, final int height)
+    {
+        this.format = format;
+        if (this.width == width && this.height == height)
+            return;
+        this.width = width;
+        this.height = height;
+        this.pixels = new short [width * height];
+    }
+
+
+    /**
+     * Get the format of the bitmap.
+     *
+     * @return The format, one of the FORMAT_ constants
+     */
+    public int getFormat ()
+    {
+        return this.format;
+    }
+
+
+    /**
+     * Get the number of pixels of the bitmap.
+     *
+     * @return Width multiplied by height
+     */
+    public int getPixelCount ()
+    {
+        return this.pixels.length;
+    }
+
+
+    /**
+     * Set a color of the palette.
+     *
+     * @param index The index of the color in the range of 0 to 15
+     * @param red The red part of the color in the range of 0 to 255
+     * @param green The green part of the color in the range of 0 to 255
+     * @param blue The blue part of the color in the range of 0 to 255
+     */
+    public void setPaletteColor (final int index, final int red, final int green, final int blue)
+    {
+        this.paletteARGB[index] = 0xFF000000 | red << 16 | green << 8 | blue;
+        this.palette565[index] = (short) ((red & 0xF8) << 8 | (green & 0xFC) << 3 | blue >> 3);
+    }
+
+
+    /**
+     * Sets all pixels to 0.
+     */
+    public void clear ()
+    {
+        Arrays.fill (this.pixels, (short) 0);
+    }
+
+
+    /**
+     * Set a range of pixels to the same value.
+     *
+     * @param start The index of the first pixel (row by row)
+     * @param end The index after the last pixel
+     * @param value The palette index or RGB565 color
+     */
+    public void fill (final int start, final int end, final int value)
+    {
+        Arrays.fill (this.pixels, start, end, (short) value);
+    }
+
+
+    /**
+     * Set a pixel.
+     *
+     * @param index The index of the pixel (row by row)
+     * @param value The palette index or RGB565 color
+     */
+    public void setPixel (final int index, final int value)
+    {
+        this.pixels[index] = (short) value;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public BitmapGridElement snapshot ()
+    {
+        return new BitmapGridElement (this);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public void drawPixels (final BufferedImage image, final int left, final int width, final int height, final Theme theme)
+    {
+        final int drawWidth = Math.min (Math.min (this.width, width), image.getWidth () - left);
+        final int drawHeight = Math.min (Math.min (this.height, height), image.getHeight ());
+        if (drawWidth <= 0 || drawHeight <= 0)
+            return;
+
+        final WritableRaster raster = image.getRaster ();
+        final int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel ()).getScanlineStride ();
+        final DataBuffer buffer = raster.getDataBuffer ();
+        final boolean isRGB565 = this.format == FORMAT_RGB565;
+
+        if (buffer instanceof DataBufferUShort)
+        {
+            final short [] data = ((DataBufferUShort) buffer).getData ();
+            for (int y = 0; y < drawHeight; y++)
+            {
+                final int source = y * this.width;
+                final int destination = y * stride + left;
+                if (isRGB565)
+                    System.arraycopy (this.pixels, source, data, destination, drawWidth);
+                else
+                {
+                    for (int x = 0; x < drawWidth; x++)
+                        data[destination + x] = this.palette565[this.pixels[source + x] & 0xF];
+                }
+            }
+            return;
+        }
+
+        final int [] data = ((DataBufferInt) buffer).getData ();
+        for (int y = 0; y < drawHeight; y++)
+        {
+            final int source = y * this.width;
+            final int destination = y * stride + left;
+            for (int x = 0; x < drawWidth; x++)
+                data[destination + x] = this.toARGB (this.pixels[source + x]);
+        }
+    }
+
+
+    /**
+     * Draws the bitmap with the graphics context, used if the pixels cannot be written directly,
+     * e.g. for the scaled preview. Horizontal runs of the same color are drawn as one rectangle.
+     *
+     * @param gc The graphic context
+     * @param left The left bound of the drawing area of the element
+     * @param width The width of the drawing area of the element
+     * @param height The height of the drawing area of the element
+     * @param theme The colors and font to use
+     */
+    @Override
+    public void draw (final Graphics2D gc, final int left, final int width, final int height, final Theme theme)
+    {
+        final int drawWidth = Math.min (this.width, width);
+        final int drawHeight = Math.min (this.height, height);
+
+        for (int y = 0; y < drawHeight; y++)
+        {
+            final int source = y * this.width;
+            int start = 0;
+            while (start < drawWidth)
+            {
+                final short value = this.pixels[source + start];
+                int end = start + 1;
+                while (end < drawWidth && this.pixels[source + end] == value)
+                    end++;
+                gc.setColor (new Color (this.toARGB (value)));
+                gc.fillRect (left + start, y, end - start, 1);
+                start = end;
+            }
+        }
+    }
+
+
+    /**
+     * Converts a pixel value to an ARGB color.
+     *
+     * @param value The palette index or RGB565 color
+     * @return The ARGB color
+     */
+    private int toARGB (final short value)
+    {
+        if (this.format != FORMAT_RGB565)
+            return this.paletteARGB[value & 0xF];
+
+        final int red = value >> 11 & 0x1F;
+        final int green = value >> 5 & 0x3F;
+        final int blue = value & 0x1F;
+        return 0xFF000000 | (red << 3 | red >> 2) << 16 | (green << 2 | green >> 4) << 8 | blue << 3 | blue >> 2;
+    }
+}
@@ -1,15 +1,14 @@
 package push22bitwig.model.grid;
 
-import push22bitwig.LayoutSettings;
-import push22bitwig.SVGImage;
+import push22bitwig.Theme;
 import push22bitwig.model.ChannelType;
+import push22bitwig.model.VuMeter;
 
 import java.awt.Color;
 import java.awt.GradientPaint;
 import java.awt.Graphics2D;
 import java.awt.Label;
 import java.awt.Paint;
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 
 
@@ -23,26 +22,29 @@ import java.io.IOException;
 public class ChannelGridElement extends ChannelSelectionGridElement
 {
     /** Edit volume. */
-    public static final int EDIT_TYPE_VOLUME     = 0;
+    public static final int     EDIT_TYPE_VOLUME     = 0;
     /** Edit panorma. */
-    public static final int EDIT_TYPE_PAN        = 1;
+    public static final int     EDIT_TYPE_PAN        = 1;
     /** Edit crossfader setting. */
-    public static final int EDIT_TYPE_CROSSFADER = 2;
+    public static final int     EDIT_TYPE_CROSSFADER = 2;
     /** Edit all settings. */
-    public static final int EDIT_TYPE_ALL        = 3;
-
-    private final int       editType;
-    private final int       volumeValue;
-    private final int       modulatedVolumeValue;
-    private final String    volumeText;
-    private final int       panValue;
-    private final int       modulatedPanValue;
-    private final String    panText;
-    private final int       vuValue;
-    private final boolean   isMute;
-    private final boolean   isSolo;
-    private final boolean   isArm;
-    private final int       crossfadeMode;
+    public static final int     EDIT_TYPE_ALL        = 3;
+
+    private static final Color  MUTE_COLOR           = new Color (245, 129, 17);
+
+    private int                 editType;
+    private int                 volumeValue;
+    private int                 modulatedVolumeValue;
+    private String              volumeText;
+    private int                 panValue;
+    private int                 modulatedPanValue;
+    private String              panText;
+    private int                 vuValue;
+    private boolean             isMute;
+    private boolean             isSolo;
+    private boolean             isArm;
+    private int                 crossfadeMode;
+    private VuMeter             vuMeter;
 
 
     /**
@@ -86,9 +88,81 @@ public class ChannelGridElement extends ChannelSelectionGridElement
     }
 
 
+    /**
+     * Replaces the values of the element, used to fill a reused element in place.
+     *
+     * @param editType What to edit, 0 = Volume, 1 = Pan, 2 = Crossfade Mode
+     * @param menuName The text for the menu
+     * @param isMenuSelected True if the menu is selected
+     * @param name The of the grid element (track name, parameter name, etc.)
+     * @param color The color to use for the header, may be null
+     * @param isSelected True if the grid element is selected
+     * @param type The type of the track
+     * @param volumeValue The value of the volume
+     * @param modulatedVolumeValue The modulated value of the volume, -1 if not modulated
+     * @param volumeText The textual form of the volumes value
+     * @param panValue The value of the panorama
+     * @param modulatedPanValue The modulated value of the panorama, -1 if not modulated
+     * @param panText The textual form of the panorama
+     * @param vuValue The value of the VU
+     * @param isMute True if muted
+     * @param isSolo True if soloed
+     * @param isArm True if recording is armed
+     * @param crossfadeMode The crossfader mode: 0 = A, 1 = AB, B = 2, -1 turns it off
+     */
+    public void set (final int editType, final String menuName, final boolean isMenuSelected, final String name, final Color color, final boolean isSelected, final ChannelType type, final int volumeValue, final int modulatedVolumeValue, final String volumeText, final int panValue, final int modulatedPanValue, final String panText, final int vuValue, final boolean isMute, final boolean isSolo, final boolean isArm, final int crossfadeMode)
+    {
+        this.set (menuName, isMenuSelected, name, color, isSelected, type);
+
+        this.editType = editType;
+        this.volumeValue = volumeValue;
+        this.modulatedVolumeValue = modulatedVolumeValue;
+        this.volumeText = volumeText;
+        this.panValue = panValue;
+        this.modulatedPanValue = modulatedPanValue;
+        this.panText = panText;
+        this.vuValue = vuValue;
+        this.isMute = isMute;
+        this.isSolo = isSolo;
+        this.isArm = isArm;
+        this.crossfadeMode = crossfadeMode;
+    }
+
+
+    /**
+     * Get the received value of the VU.
+     *
+     * @return The value
+     */
+    public int getVuValue ()
+    {
+        return this.vuValue;
+    }
+
+
+    /**
+     * Set the meter which calculates the displayed VU level from the received values. If no meter
+     * is set the received value is drawn.
+     *
+     * @param vuMeter The meter, may be null
+     */
+    public void setVuMeter (final VuMeter vuMeter)
+    {
+        this.vuMeter = vuMeter;
+    }
+
+
     /** {@inheritDoc} */
     @Override
-    public void draw (final Graphics2D gc, final int left, final int width, final int height, final LayoutSettings layoutSettings) throws IOException
+    public ChannelGridElement snapshot ()
+    {
+        return new ChannelGridElement (this.editType, this.menuName, this.isMenuSelected, this.getName (), this.getColor (), this.isSelected (), this.getType (), this.volumeValue, this.modulatedVolumeValue, this.volumeText, this.panValue, this.modulatedPanValue, this.panText, this.vuValue, this.isMute, this.isSolo, this.isArm, this.crossfadeMode);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public void draw (final Graphics2D gc, final int left, final int width, final int height, final Theme theme) throws IOException
     {
         final int halfWidth = width / 2;
 
@@ -118,29 +192,28 @@ public class ChannelGridElement extends ChannelSelectionGridElement
         // Drawing
         //
 
-        final Color textColor = layoutSettings.getTextColor ();
-        this.drawMenu (gc, left, width, layoutSettings);
+        final Color textColor = theme.getTextColor ();
+        this.drawMenu (gc, left, width, theme);
 
         final String name = this.getName ();
         // Element is off if the name is empty
         if (name == null || name.length () == 0)
             return;
 
-        final Color backgroundColor = layoutSettings.getBackgroundColor ();
-        this.drawTrackInfo (gc, left, width, height, trackRowTop, name, layoutSettings);
+        this.drawTrackInfo (gc, left, width, height, trackRowTop, name, theme);
 
         // Draw the background
-        gc.setColor (this.isSelected () ? backgroundColor.brighter () : backgroundColor);
+        gc.setColor (this.isSelected () ? theme.getBackgroundBrighterColor () : theme.getBackgroundColor ());
         gc.fillRect (left, MENU_HEIGHT + 1, width, trackRowTop - (MENU_HEIGHT + 1));
 
         // Background of pan and slider area
-        final Color borderColor = layoutSettings.getBorderColor ();
+        final Color borderColor = theme.getBorderColor ();
         gc.setColor (borderColor);
         gc.fillRect (controlStart, CONTROLS_TOP, halfWidth - UNIT + HALF_UNIT / 2 + 1, UNIT);
         gc.fillRect (controlStart, faderTop, controlWidth, faderHeight);
 
-        final Color backgroundDarker = backgroundColor.darker ();
-        final Color editColor = layoutSettings.getEditColor ();
+        final Color backgroundDarker = theme.getBackgroundDarkerColor ();
+        final Color editColor = theme.getEditColor ();
 
         final ChannelType type = this.getType ();
         if (type != ChannelType.MASTER && type != ChannelType.LAYER && this.crossfadeMode != -1)
@@ -148,12 +221,9 @@ public class ChannelGridElement extends ChannelSelectionGridElement
             // Crossfader A|B
             final int crossWidth = controlWidth / 3;
             final Color selColor = this.editType == EDIT_TYPE_CROSSFADER || this.editType == EDIT_TYPE_ALL ? editColor : textColor;
-            final BufferedImage crossfaderAIcon = SVGImage.getSVGImage ("/images/track/crossfade_a.svg", this.crossfadeMode == 0 ? selColor : backgroundDarker);
-            gc.drawImage (crossfaderAIcon, left + INSET + (crossWidth - crossfaderAIcon.getWidth ()) / 2, CONTROLS_TOP + (panHeight - crossfaderAIcon.getHeight ()) / 2, null);
-            final BufferedImage crossfaderABIcon = SVGImage.getSVGImage ("/images/track/crossfade_ab.svg", this.crossfadeMode == 1 ? selColor : backgroundDarker);
-            gc.drawImage (crossfaderABIcon, crossWidth + left + INSET + (crossWidth - crossfaderAIcon.getWidth ()) / 2, CONTROLS_TOP + (panHeight - crossfaderAIcon.getHeight ()) / 2, null);
-            final BufferedImage crossfaderBIcon = SVGImage.getSVGImage ("/images/track/crossfade_b.svg", this.crossfadeMode == 2 ? selColor : backgroundDarker);
-            gc.drawImage (crossfaderBIcon, 2 * crossWidth + left + INSET + (crossWidth - crossfaderAIcon.getWidth ()) / 2, CONTROLS_TOP + (panHeight - crossfaderAIcon.getHeight ()) / 2, null);
+            drawIcon (gc, "/images/track/crossfade_a.svg", this.crossfadeMode == 0 ? selColor : backgroundDarker, left + INSET, CONTROLS_TOP, crossWidth, panHeight);
+            drawIcon (gc, "/images/track/crossfade_ab.svg", this.crossfadeMode == 1 ? selColor : backgroundDarker, crossWidth + left + INSET, CONTROLS_TOP, crossWidth, panHeight);
+            drawIcon (gc, "/images/track/crossfade_b.svg", this.crossfadeMode == 2 ? selColor : backgroundDarker, 2 * crossWidth + left + INSET, CONTROLS_TOP, crossWidth, panHeight);
         }
 
         // Panorama
@@ -165,7 +235,7 @@ public class ChannelGridElement extends ChannelSelectionGridElement
         gc.drawLine (panMiddle, panTop, panMiddle, panTop + panHeight);
         final double maxValue = getMaxValue ();
         final double halfMax = maxValue / 2;
-        final Color faderColor = layoutSettings.getFaderColor ();
+        final Color faderColor = theme.getFaderColor ();
         gc.setColor (faderColor);
         final boolean isPanTouched = this.panText.length () > 0;
 
@@ -203,28 +273,23 @@ public class ChannelGridElement extends ChannelSelectionGridElement
         }
 
         // VU
-        gc.setColor (backgroundDarker);
-        final int vuHeight = (int) (this.vuValue >= maxValue - 1 ? faderInnerHeight : faderInnerHeight * this.vuValue / maxValue);
-        final int vuOffset = faderInnerHeight - vuHeight;
-        gc.fillRect (controlStart + SEPARATOR_SIZE, faderTop + SEPARATOR_SIZE, faderOffset - SEPARATOR_SIZE, faderInnerHeight);
-        gc.setColor (layoutSettings.getVuColor ());
-        gc.fillRect (controlStart + SEPARATOR_SIZE, faderTop + SEPARATOR_SIZE + vuOffset, faderOffset - SEPARATOR_SIZE, vuHeight);
+        this.drawVuStrip (gc, controlStart + SEPARATOR_SIZE, faderTop + SEPARATOR_SIZE, faderOffset - SEPARATOR_SIZE, faderInnerHeight, theme);
 
         int buttonTop = faderTop;
 
         if (type != ChannelType.LAYER)
         {
             // Rec Arm
-            drawButton (gc, left + INSET - 1, buttonTop, controlWidth - 1, buttonHeight - 1, backgroundColor, Color.RED, textColor, this.isArm, "/images/channel/record_arm.svg", layoutSettings);
+            drawButton (gc, left + INSET - 1, buttonTop, controlWidth - 1, buttonHeight - 1, Color.RED, textColor, this.isArm, "/images/channel/record_arm.svg", theme);
         }
 
         // Solo
         buttonTop += buttonHeight + 2 * SEPARATOR_SIZE;
-        drawButton (gc, left + INSET - 1, buttonTop, controlWidth - 1, buttonHeight - 1, backgroundColor, Color.YELLOW, textColor, this.isSolo, "/images/channel/solo.svg", layoutSettings);
+        drawButton (gc, left + INSET - 1, buttonTop, controlWidth - 1, buttonHeight - 1, Color.YELLOW, textColor, this.isSolo, "/images/channel/solo.svg", theme);
 
         // Mute
         buttonTop += buttonHeight + 2 * SEPARATOR_SIZE;
-        drawButton (gc, left + INSET - 1, buttonTop, controlWidth - 1, buttonHeight - 1, backgroundColor, new Color (245, 129, 17), textColor, this.isMute, "/images/channel/mute.svg", layoutSettings);
+        drawButton (gc, left + INSET - 1, buttonTop, controlWidth - 1, buttonHeight - 1, MUTE_COLOR, textColor, this.isMute, "/images/channel/mute.svg", theme);
 
         // Draw panorama text on top if set
         if (isPanTouched)
@@ -233,7 +298,7 @@ public class ChannelGridElement extends ChannelSelectionGridElement
             gc.fillRect (controlStart, panTextTop, controlWidth, UNIT);
             gc.setColor (borderColor);
             gc.drawRect (controlStart, panTextTop, controlWidth - 1, UNIT);
-            gc.setFont (layoutSettings.getTextFont (UNIT));
+            gc.setFont (theme.getTextFont (UNIT));
             gc.setColor (textColor);
             drawTextInBounds (gc, this.panText, controlStart, panTextTop, controlWidth, UNIT, Label.CENTER);
         }
@@ -246,13 +311,95 @@ public class ChannelGridElement extends ChannelSelectionGridElement
             gc.fillRect (volumeTextLeft, volumeTextTop, volumeTextWidth, UNIT);
             gc.setColor (borderColor);
             gc.drawRect (volumeTextLeft, volumeTextTop, volumeTextWidth - 1, UNIT);
-            gc.setFont (layoutSettings.getTextFont (UNIT));
+            gc.setFont (theme.getTextFont (UNIT));
             gc.setColor (textColor);
             drawTextInBounds (gc, this.volumeText, volumeTextLeft, volumeTextTop, volumeTextWidth, UNIT, Label.CENTER);
         }
     }
 
 
+    /**
+     * Draws only the VU strip of the element on top of the element drawn in a previous frame. This
+     * allows to animate the VU meter without drawing the whole element.
+     *
+     * @param gc The graphics context
+     * @param left The left bound of the element
+     * @param width The width of the element
+     * @param height The height of the element
+     * @param theme The colors and font to use
+     * @return False if the strip is covered by the panorama or volume text, in that case the whole
+     *         element needs to be drawn
+     */
+    public boolean drawVu (final Graphics2D gc, final int left, final int width, final int height, final Theme theme)
+    {
+        // Nothing to draw if the element is off
+        final String name = this.getName ();
+        if (name == null || name.length () == 0)
+            return true;
+        if (this.panText.length () > 0 || this.volumeText.length () > 0)
+            return false;
+
+        final int halfWidth = width / 2;
+        final int trackRowTop = height - TRACK_ROW_HEIGHT - UNIT - SEPARATOR_SIZE;
+        final int controlWidth = halfWidth - HALF_UNIT - HALF_UNIT / 2;
+        final int controlStart = left + halfWidth + HALF_UNIT - HALF_UNIT / 2;
+        final int faderOffset = controlWidth / 4;
+        final int panTop = CONTROLS_TOP + 1;
+        final int panHeight = UNIT - SEPARATOR_SIZE;
+        final int faderTop = panTop + panHeight + SEPARATOR_SIZE + 1;
+        final int faderHeight = trackRowTop - faderTop - INSET + 1;
+        final int faderInnerHeight = faderHeight - 2 * SEPARATOR_SIZE;
+
+        this.drawVuStrip (gc, controlStart + SEPARATOR_SIZE, faderTop + SEPARATOR_SIZE, faderOffset - SEPARATOR_SIZE, faderInnerHeight, theme);
+        return true;
+    }
+
+
+    /**
+     * Draws the VU strip with the level and the peak of the meter or the received value if there is
+     * no meter.
+     *
+     * @param gc The graphics context
+     * @param left The left bound of the strip
+     * @param top The top bound of the strip
+     * @param width The width of the strip
+     * @param height The height of the strip
+     * @param theme The colors and font to use
+     */
+    private void drawVuStrip (final Graphics2D gc, final int left, final int top, final int width, final int height, final Theme theme)
+    {
+        gc.setColor (theme.getBackgroundDarkerColor ());
+        gc.fillRect (left, top, width, height);
+
+        final int vuHeight = getVuHeight (this.vuMeter == null ? this.vuValue : this.vuMeter.getValue (), height);
+        gc.setColor (theme.getVuColor ());
+        gc.fillRect (left, top + height - vuHeight, width, vuHeight);
+
+        // Peak hold marker
+        if (this.vuMeter != null)
+        {
+            final int peakHeight = getVuHeight (this.vuMeter.getPeak (), height);
+            if (peakHeight > vuHeight)
+                gc.fillRect (left, top + height - peakHeight, width, 1);
+        }
+    }
+
+
+    /**
+     * Calculates the height of a VU level. Ensures that the maximum value is reached even if
+     * rounding errors happen.
+     *
+     * @param value The VU level
+     * @param height The height of the VU strip
+     * @return The height of the level in pixels
+     */
+    private static int getVuHeight (final double value, final int height)
+    {
+        final double maxValue = getMaxValue ();
+        return (int) (value >= maxValue - 1 ? height : height * value / maxValue);
+    }
+
+
     /**
      * Draws a button a gradient background.
      *
@@ -261,17 +408,16 @@ public class ChannelGridElement extends ChannelSelectionGridElement
      * @param top The top bound of the drawing area
      * @param width The width of the drawing area
      * @param height The height of the drawing area
-     * @param backgroundColor The background color
      * @param isOnColor The color if the button is on
      * @param textColor The color of the buttons text
      * @param isOn True if the button is on
      * @param iconName The name of the buttons icon
-     * @param layoutSettings The layout settings
+     * @param theme The colors and font to use
      * @throws IOException Could not load a SVG image
      */
-    private static void drawButton (final Graphics2D gc, final int left, final int top, final int width, final int height, final Color backgroundColor, final Color isOnColor, final Color textColor, final boolean isOn, final String iconName, final LayoutSettings layoutSettings) throws IOException
+    private static void drawButton (final Graphics2D gc, final int left, final int top, final int width, final int height, final Color isOnColor, final Color textColor, final boolean isOn, final String iconName, final Theme theme) throws IOException
     {
-        final Color borderColor = layoutSettings.getBorderColor ();
+        final Color borderColor = theme.getBorderColor ();
 
         gc.setColor (borderColor);
         gc.drawRoundRect (left, top, width, height, 5, 5);
@@ -283,18 +429,16 @@ public class ChannelGridElement extends ChannelSelectionGridElement
         }
         else
         {
-            final Color brighter = backgroundColor.brighter ();
-            gc.setColor (brighter.brighter ());
+            gc.setColor (theme.getBackgroundBrightestColor ());
             gc.drawRoundRect (left + 1, top + 1, width - 2, height - 2, 5, 5);
 
             final Paint oldPaint = gc.getPaint ();
-            final GradientPaint gp = new GradientPaint (left, top + 1, backgroundColor, left, top + height, brighter);
+            final GradientPaint gp = new GradientPaint (left, top + 1, theme.getBackgroundColor (), left, top + height, theme.getBackgroundBrighterColor ());
             gc.setPaint (gp);
             gc.fillRoundRect (left + 2, top + 2, width - 2, height - 2, 5, 5);
             gc.setPaint (oldPaint);
         }
 
-        final BufferedImage icon = SVGImage.getSVGImage (iconName, isOn ? borderColor : textColor);
-        gc.drawImage (icon, left + (width - icon.getWidth ()) / 2, top + (height - icon.getHeight ()) / 2, null);
+        drawIcon (gc, iconName, isOn ? borderColor : textColor, left, top, width, height);
     }
 }
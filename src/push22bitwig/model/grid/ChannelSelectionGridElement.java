@@ -1,13 +1,11 @@
 package push22bitwig.model.grid;
 
-import push22bitwig.LayoutSettings;
-import push22bitwig.SVGImage;
+import push22bitwig.Theme;
 import push22bitwig.model.ChannelType;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Label;
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.EnumMap;
 
@@ -37,7 +35,7 @@ public class ChannelSelectionGridElement extends AbstractGridElement
         ICONS.put (ChannelType.LAYER, "/images/track/multi_layer.svg");
     }
 
-    private final ChannelType type;
+    private ChannelType                               type;
 
 
     /**
@@ -57,6 +55,31 @@ public class ChannelSelectionGridElement extends AbstractGridElement
     }
 
 
+    /**
+     * Replaces the values of the element, used to fill a reused element in place.
+     *
+     * @param menuName The text for the menu
+     * @param isMenuSelected True if the menu is selected
+     * @param name The of the grid element (track name, parameter name, etc.)
+     * @param color The color to use for the header, may be null
+     * @param isSelected True if the grid element is selected
+     * @param type The type of the track
+     */
+    public final void set (final String menuName, final boolean isMenuSelected, final String name, final Color color, final boolean isSelected, final ChannelType type)
+    {
+        this.set (menuName, isMenuSelected, null, name, color, isSelected);
+        this.type = type;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public ChannelSelectionGridElement snapshot ()
+    {
+        return new ChannelSelectionGridElement (this.menuName, this.isMenuSelected, this.getName (), this.getColor (), this.isSelected (), this.type);
+    }
+
+
     /**
      * Get the type of the channel.
      *
@@ -78,9 +101,9 @@ public class ChannelSelectionGridElement extends AbstractGridElement
 
     /** {@inheritDoc} */
     @Override
-    public void draw (final Graphics2D gc, final int left, final int width, final int height, final LayoutSettings layoutSettings) throws IOException
+    public void draw (final Graphics2D gc, final int left, final int width, final int height, final Theme theme) throws IOException
     {
-        this.drawMenu (gc, left, width, layoutSettings);
+        this.drawMenu (gc, left, width, theme);
 
         final String name = this.getName ();
         // Element is off if the name is empty
@@ -88,7 +111,7 @@ public class ChannelSelectionGridElement extends AbstractGridElement
             return;
 
         final int trackRowTop = height - TRACK_ROW_HEIGHT - UNIT - SEPARATOR_SIZE;
-        this.drawTrackInfo (gc, left, width, height, trackRowTop, name, layoutSettings);
+        this.drawTrackInfo (gc, left, width, height, trackRowTop, name, theme);
     }
 
 
@@ -101,25 +124,23 @@ public class ChannelSelectionGridElement extends AbstractGridElement
      * @param height The height of the drawing area
      * @param trackRowTop The top of the drawing area
      * @param name The name of the track
-     * @param layoutSettings The layout settings
+     * @param theme The colors and font to use
      * @throws IOException Could not load a SVG image
      */
-    protected void drawTrackInfo (final Graphics2D gc, final int left, final int width, final int height, final int trackRowTop, final String name, final LayoutSettings layoutSettings) throws IOException
+    protected void drawTrackInfo (final Graphics2D gc, final int left, final int width, final int height, final int trackRowTop, final String name, final Theme theme) throws IOException
     {
         // Draw the background
-        final Color backgroundColor = layoutSettings.getBackgroundColor ();
-        gc.setColor (this.isSelected () ? backgroundColor.brighter () : backgroundColor);
+        gc.setColor (this.isSelected () ? theme.getBackgroundBrighterColor () : theme.getBackgroundColor ());
         gc.fillRect (left, trackRowTop + 1, width, height - UNIT - 1);
 
         // The tracks icon and name
         final String iconName = this.getIcon ();
         if (iconName != null)
         {
-            final Color textColor = layoutSettings.getTextColor ();
-            final BufferedImage icon = SVGImage.getSVGImage (iconName, textColor);
-            gc.drawImage (icon, left + (DOUBLE_UNIT - icon.getWidth ()) / 2, height - TRACK_ROW_HEIGHT - UNIT + (TRACK_ROW_HEIGHT - icon.getHeight ()) / 2, null);
+            final Color textColor = theme.getTextColor ();
+            drawIcon (gc, iconName, textColor, left, height - TRACK_ROW_HEIGHT - UNIT, DOUBLE_UNIT, TRACK_ROW_HEIGHT);
             gc.setColor (textColor);
-            gc.setFont (layoutSettings.getTextFont ((int) (1.2 * UNIT)));
+            gc.setFont (theme.getTextFont ((int) (1.2 * UNIT)));
 
             gc.clipRect (left + DOUBLE_UNIT, trackRowTop, width - DOUBLE_UNIT - INSET, TRACK_ROW_HEIGHT);
             drawTextInBounds (gc, name, left + DOUBLE_UNIT, trackRowTop, width, TRACK_ROW_HEIGHT, Label.LEFT);
@@ -1,6 +1,6 @@
 package push22bitwig.model.grid;
 
-import push22bitwig.LayoutSettings;
+import push22bitwig.Theme;
 
 import java.awt.Graphics2D;
 import java.io.IOException;
@@ -43,8 +43,18 @@ public interface GridElement
      * @param left The left bound of the drawing area of the element
      * @param width The width of the drawing area of the element
      * @param height The height of the drawing area of the element
-     * @param layoutSettings The layout settings to use
+     * @param theme The colors and font to use
      * @throws IOException Could not load a SVG image
      */
-    void draw (final Graphics2D gc, final int left, final int width, final int height, final LayoutSettings layoutSettings) throws IOException;
+    void draw (final Graphics2D gc, final int left, final int width, final int height, final Theme theme) throws IOException;
+
+
+    /**
+     * Get a copy of the element. The protocol parser may fill reused elements in place (see
+     * {@link push22bitwig.protocol.ProtocolParser#setGarbageFree(boolean)}), a consumer which keeps
+     * an element beyond drawing it needs a copy which is not changed by the next received grid.
+     *
+     * @return The copy
+     */
+    GridElement snapshot ();
 }
@@ -1,6 +1,6 @@
 package push22bitwig.model.grid;
 
-import push22bitwig.LayoutSettings;
+import push22bitwig.Theme;
 
 import javafx.util.Pair;
 
@@ -35,15 +35,45 @@ public class ListGridElement extends AbstractGridElement
     }
 
 
+    /**
+     * Replaces an item of the list, used to fill a reused element in place. The item is only
+     * replaced if it has changed.
+     *
+     * @param index The index of the item, if it is the size of the list the item is added
+     * @param text The text of the item
+     * @param isSelected True if the item is selected
+     */
+    public void setItem (final int index, final String text, final boolean isSelected)
+    {
+        if (index == this.items.size ())
+        {
+            this.items.add (new Pair<> (text, Boolean.valueOf (isSelected)));
+            return;
+        }
+
+        final Pair<String, Boolean> item = this.items.get (index);
+        if (!text.equals (item.getKey ()) || item.getValue ().booleanValue () != isSelected)
+            this.items.set (index, new Pair<> (text, Boolean.valueOf (isSelected)));
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public ListGridElement snapshot ()
+    {
+        return new ListGridElement (this.items);
+    }
+
+
     /** {@inheritDoc} */
     @Override
-    public void draw (final Graphics2D gc, final int left, final int width, final int height, final LayoutSettings layoutSettings)
+    public void draw (final Graphics2D gc, final int left, final int width, final int height, final Theme theme)
     {
         final int size = this.items.size ();
         final int itemHeight = DISPLAY_HEIGHT / size;
 
-        final Color textColor = layoutSettings.getTextColor ();
-        final Color borderColor = layoutSettings.getBorderColor ();
+        final Color textColor = theme.getTextColor ();
+        final Color borderColor = theme.getBorderColor ();
 
         for (int i = 0; i < size; i++)
         {
@@ -57,7 +87,7 @@ public class ListGridElement extends AbstractGridElement
             gc.fillRect (itemLeft, itemTop + SEPARATOR_SIZE, itemWidth, itemHeight - 2 * SEPARATOR_SIZE);
 
             gc.setColor (isSelected ? borderColor : textColor);
-            gc.setFont (layoutSettings.getTextFont (itemHeight / 2));
+            gc.setFont (theme.getTextFont (itemHeight / 2));
             drawTextInBounds (gc, item.getKey (), itemLeft + INSET, itemTop, itemWidth - 2 * INSET, itemHeight, Label.LEFT);
         }
     }
@@ -1,6 +1,6 @@
 package push22bitwig.model.grid;
 
-import push22bitwig.LayoutSettings;
+import push22bitwig.Theme;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
@@ -18,11 +18,11 @@ import java.awt.Label;
  */
 public class OptionsGridElement extends AbstractGridElement
 {
-    private final String  headerBottom;
-    private final String  headerTop;
-    private final String  menuBottomName;
-    private final boolean isMenuBottomSelected;
-    private final boolean useSmallTopMenu;
+    private String  headerBottom;
+    private String  headerTop;
+    private String  menuBottomName;
+    private boolean isMenuBottomSelected;
+    private boolean useSmallTopMenu;
 
 
     /**
@@ -48,17 +48,48 @@ public class OptionsGridElement extends AbstractGridElement
     }
 
 
+    /**
+     * Replaces the values of the element, used to fill a reused element in place.
+     *
+     * @param headerTop A header for the top menu options (may span multiple grids), may be null
+     * @param menuTopName A name for the to menu, may be null
+     * @param isMenuTopSelected Is the top menu selected?
+     * @param headerBottom A header for the bottom menu options (may span multiple grids), may be
+     *            null
+     * @param menuBottomName A name for the bottom menu, may be null
+     * @param isMenuBottomSelected Is the bottom menu selected?
+     * @param useSmallTopMenu Draw the small version of the top menu if true
+     */
+    public void set (final String headerTop, final String menuTopName, final boolean isMenuTopSelected, final String headerBottom, final String menuBottomName, final boolean isMenuBottomSelected, final boolean useSmallTopMenu)
+    {
+        this.set (menuTopName, isMenuTopSelected, null, null, null, false);
+        this.headerTop = headerTop;
+        this.headerBottom = headerBottom;
+        this.menuBottomName = menuBottomName;
+        this.isMenuBottomSelected = isMenuBottomSelected;
+        this.useSmallTopMenu = useSmallTopMenu;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public OptionsGridElement snapshot ()
+    {
+        return new OptionsGridElement (this.headerTop, this.menuName, this.isMenuSelected, this.headerBottom, this.menuBottomName, this.isMenuBottomSelected, this.useSmallTopMenu);
+    }
+
+
     /** {@inheritDoc} */
     @Override
-    public void draw (final Graphics2D gc, final int left, final int width, final int height, final LayoutSettings layoutSettings)
+    public void draw (final Graphics2D gc, final int left, final int width, final int height, final Theme theme)
     {
         final int menuHeight = MENU_HEIGHT * 2;
 
         if (this.useSmallTopMenu)
-            this.drawMenu (gc, left, width, layoutSettings);
+            this.drawMenu (gc, left, width, theme);
         else
-            drawLargeMenu (gc, left, 0, width, menuHeight, this.menuName, this.isMenuSelected, layoutSettings);
-        drawLargeMenu (gc, left, DISPLAY_HEIGHT - 2 * MENU_HEIGHT, width, menuHeight, this.menuBottomName, this.isMenuBottomSelected, layoutSettings);
+            drawLargeMenu (gc, left, 0, width, menuHeight, this.menuName, this.isMenuSelected, theme);
+        drawLargeMenu (gc, left, DISPLAY_HEIGHT - 2 * MENU_HEIGHT, width, menuHeight, this.menuBottomName, this.isMenuBottomSelected, theme);
 
         final boolean hasTopHeader = this.headerTop != null && this.headerTop.length () > 0;
         final boolean hasBottomHeader = this.headerBottom != null && this.headerBottom.length () > 0;
@@ -67,8 +98,8 @@ public class OptionsGridElement extends AbstractGridElement
 
         final int headerHeight = (DISPLAY_HEIGHT - 2 * menuHeight) / 2;
 
-        gc.setColor (layoutSettings.getTextColor ());
-        gc.setFont (layoutSettings.getTextFont (headerHeight / 2));
+        gc.setColor (theme.getTextColor ());
+        gc.setFont (theme.getTextFont (headerHeight / 2));
 
         if (hasTopHeader)
             drawTextInHeight (gc, this.headerTop, left, menuHeight, headerHeight);
@@ -87,20 +118,20 @@ public class OptionsGridElement extends AbstractGridElement
      * @param height The height of the menu
      * @param menu The menu text
      * @param isSelected True if the menu is selected
-     * @param layoutSettings The layout settings to use
+     * @param theme The colors and font to use
      */
-    protected static void drawLargeMenu (final Graphics2D gc, final int left, final int top, final int width, final int height, final String menu, final boolean isSelected, final LayoutSettings layoutSettings)
+    protected static void drawLargeMenu (final Graphics2D gc, final int left, final int top, final int width, final int height, final String menu, final boolean isSelected, final Theme theme)
     {
         if (menu == null || menu.length () == 0)
             return;
 
-        final Color textColor = layoutSettings.getTextColor ();
+        final Color textColor = theme.getTextColor ();
 
-        gc.setColor (isSelected ? textColor : layoutSettings.getBackgroundColor ());
+        gc.setColor (isSelected ? textColor : theme.getBackgroundColor ());
         gc.fillRect (left, top, width, height);
 
-        gc.setColor (isSelected ? layoutSettings.getBorderColor () : textColor);
-        gc.setFont (layoutSettings.getTextFont (height / 2));
+        gc.setColor (isSelected ? theme.getBorderColor () : textColor);
+        gc.setFont (theme.getTextFont (height / 2));
         drawTextInBounds (gc, menu, left, top, width, height, Label.CENTER);
     }
 }
@@ -1,6 +1,6 @@
 package push22bitwig.model.grid;
 
-import push22bitwig.LayoutSettings;
+import push22bitwig.Theme;
 import push22bitwig.model.ChannelType;
 
 import java.awt.Color;
@@ -18,11 +18,11 @@ import java.io.IOException;
  */
 public class ParamGridElement extends ChannelSelectionGridElement
 {
-    private final String  paramName;
-    private final String  paramValueText;
-    private final int     paramValue;
-    private int           modulatedParamValue;
-    private final boolean isTouched;
+    private String  paramName;
+    private String  paramValueText;
+    private int     paramValue;
+    private int     modulatedParamValue;
+    private boolean isTouched;
 
 
     /**
@@ -52,11 +52,46 @@ public class ParamGridElement extends ChannelSelectionGridElement
     }
 
 
+    /**
+     * Replaces the values of the element, used to fill a reused element in place.
+     *
+     * @param menuName The text for the menu
+     * @param isMenuSelected True if the menu is selected
+     * @param name The of the grid element (track name, parameter name, etc.)
+     * @param type The channel type if any
+     * @param color The color to use for the header, may be null
+     * @param isSelected True if the grid element is selected
+     * @param paramName The name of the parameter
+     * @param paramValue The value of the fader
+     * @param modulatedParamValue The modulated value of the fader, -1 if not modulated
+     * @param paramValueText The textual form of the faders value
+     * @param isTouched True if touched
+     */
+    public void set (final String menuName, final boolean isMenuSelected, final String name, final ChannelType type, final Color color, final boolean isSelected, final String paramName, final int paramValue, final int modulatedParamValue, final String paramValueText, final boolean isTouched)
+    {
+        this.set (menuName, isMenuSelected, name, color, isSelected, type);
+
+        this.paramName = paramName;
+        this.paramValue = paramValue;
+        this.modulatedParamValue = modulatedParamValue;
+        this.paramValueText = paramValueText;
+        this.isTouched = isTouched;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public ParamGridElement snapshot ()
+    {
+        return new ParamGridElement (this.menuName, this.isMenuSelected, this.getName (), this.getType (), this.getColor (), this.isSelected (), this.paramName, this.paramValue, this.modulatedParamValue, this.paramValueText, this.isTouched);
+    }
+
+
     /** {@inheritDoc} */
     @Override
-    public void draw (final Graphics2D gc, final int left, final int width, final int height, final LayoutSettings layoutSettings) throws IOException
+    public void draw (final Graphics2D gc, final int left, final int width, final int height, final Theme theme) throws IOException
     {
-        this.drawMenu (gc, left, width, layoutSettings);
+        this.drawMenu (gc, left, width, theme);
 
         final boolean isValueMissing = this.paramValue == 16383; // == -1
         final boolean isModulated = this.modulatedParamValue != 16383; // == -1
@@ -64,7 +99,7 @@ public class ParamGridElement extends ChannelSelectionGridElement
         final int trackRowTop = height - TRACK_ROW_HEIGHT - UNIT - SEPARATOR_SIZE;
         final String name = this.getName ();
         if (name != null && name.length () > 0)
-            this.drawTrackInfo (gc, left, width, height, trackRowTop, name, layoutSettings);
+            this.drawTrackInfo (gc, left, width, height, trackRowTop, name, theme);
 
         // Element is off if the name is empty
         if (this.paramName == null || this.paramName.length () == 0)
@@ -74,14 +109,13 @@ public class ParamGridElement extends ChannelSelectionGridElement
         final int elementHeight = (trackRowTop - CONTROLS_TOP - INSET) / 3;
 
         // Draw the background
-        final Color backgroundColor = layoutSettings.getBackgroundColor ();
-        gc.setColor (this.isTouched ? backgroundColor.brighter () : backgroundColor);
+        gc.setColor (this.isTouched ? theme.getBackgroundBrighterColor () : theme.getBackgroundColor ());
         gc.fillRect (left, MENU_HEIGHT + 1, width, trackRowTop - (isValueMissing ? CONTROLS_TOP + elementHeight : MENU_HEIGHT + 1));
 
         // Draw the name and value texts
-        final Color textColor = layoutSettings.getTextColor ();
+        final Color textColor = theme.getTextColor ();
         gc.setColor (textColor);
-        gc.setFont (layoutSettings.getTextFont (elementHeight * 2 / 3));
+        gc.setFont (theme.getTextFont (elementHeight * 2 / 3));
         drawTextInBounds (gc, this.paramName, left + INSET - 1, CONTROLS_TOP - INSET, elementWidth, elementHeight, Label.CENTER);
         drawTextInBounds (gc, this.paramValueText, left + INSET - 1, CONTROLS_TOP - INSET + elementHeight, elementWidth, elementHeight, Label.CENTER);
 
@@ -93,12 +127,12 @@ public class ParamGridElement extends ChannelSelectionGridElement
         final int value = isModulated ? this.modulatedParamValue : this.paramValue;
         final int valueSliderWidth = (int) (value >= maxValue - 1 ? elementInnerWidth : elementInnerWidth * value / maxValue);
         final int innerTop = CONTROLS_TOP + 2 * elementHeight + 1;
-        final Color borderColor = layoutSettings.getBorderColor ();
+        final Color borderColor = theme.getBorderColor ();
         gc.setColor (borderColor);
         gc.fillRect (left + INSET - 1, CONTROLS_TOP + 2 * elementHeight, elementWidth, elementHeight);
-        gc.setColor (layoutSettings.getFaderColor ());
+        gc.setColor (theme.getFaderColor ());
         gc.fillRect (left + INSET, innerTop, valueSliderWidth, elementHeight - 2);
-        gc.setColor (layoutSettings.getEditColor ());
+        gc.setColor (theme.getEditColor ());
         final int w = this.isTouched ? 3 : 1;
         final int valueWidth = (int) (this.paramValue >= maxValue - 1 ? elementInnerWidth : elementInnerWidth * this.paramValue / maxValue);
         gc.fillRect (left + INSET + Math.max (0, valueWidth - w), innerTop, w, elementHeight - 2);
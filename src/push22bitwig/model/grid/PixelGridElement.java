@@ -0,0 +1,29 @@
+package push22bitwig.model.grid;
+
+import push22bitwig.Theme;
+
+import java.awt.image.BufferedImage;
+
+
+/**
+ * An element in the grid which consists of pixels that can be written directly into the image of
+ * the display instead of drawing them with a graphics context.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public interface PixelGridElement extends GridElement
+{
+    /**
+     * Draws the element by writing the pixels directly into the data buffer of the image. Supports
+     * images of type TYPE_INT_ARGB and TYPE_USHORT_565_RGB.
+     *
+     * @param image The image to draw into
+     * @param left The left bound of the drawing area of the element
+     * @param width The width of the drawing area of the element
+     * @param height The height of the drawing area of the element
+     * @param theme The colors and font to use
+     */
+    void drawPixels (final BufferedImage image, final int left, final int width, final int height, final Theme theme);
+}
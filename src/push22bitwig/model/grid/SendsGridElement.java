@@ -1,6 +1,6 @@
 package push22bitwig.model.grid;
 
-import push22bitwig.LayoutSettings;
+import push22bitwig.Theme;
 import push22bitwig.model.ChannelType;
 
 import java.awt.Color;
@@ -76,6 +76,54 @@ public class SendsGridElement extends ChannelSelectionGridElement
     public SendsGridElement (final String [] sendNames, final String [] sendTexts, final int [] sendValues, final int [] modulatedSendValues, final boolean [] sendEdited, final String menuName, final boolean isMenuSelected, final String name, final Color color, final boolean isSelected, final ChannelType type, final boolean isExMode)
     {
         super (menuName, isMenuSelected, name, color, isSelected, type);
+        this.setSends (sendNames, sendTexts, sendValues, modulatedSendValues, sendEdited, isExMode);
+    }
+
+
+    /**
+     * Replaces the values of the element, used to fill a reused element in place. The arrays are
+     * copied.
+     *
+     * @param sendNames The names of the send tracks
+     * @param sendTexts The texts of the sends volumes
+     * @param sendValues The values of the sends volumes
+     * @param modulatedSendValues The modulated values of the sends volumes, -1 if not modulated
+     * @param sendEdited The states of which send can be edited
+     * @param menuName The text for the menu
+     * @param isMenuSelected True if the menu is selected
+     * @param name The of the grid element (track name, parameter name, etc.)
+     * @param color The color to use for the header, may be null
+     * @param isSelected True if the grid element is selected
+     * @param type The type of the track
+     * @param isExMode True if the sends grid element is an extension for a track grid element
+     */
+    public void set (final String [] sendNames, final String [] sendTexts, final int [] sendValues, final int [] modulatedSendValues, final boolean [] sendEdited, final String menuName, final boolean isMenuSelected, final String name, final Color color, final boolean isSelected, final ChannelType type, final boolean isExMode)
+    {
+        this.set (menuName, isMenuSelected, name, color, isSelected, type);
+        this.setSends (sendNames, sendTexts, sendValues, modulatedSendValues, sendEdited, isExMode);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public SendsGridElement snapshot ()
+    {
+        return new SendsGridElement (this.sendNames, this.sendTexts, this.sendValues, this.modulatedSendValues, this.sendEdited, this.menuName, this.isMenuSelected, this.getName (), this.getColor (), this.isSelected (), this.getType (), this.isExMode);
+    }
+
+
+    /**
+     * Copies the values of the sends.
+     *
+     * @param sendNames The names of the send tracks
+     * @param sendTexts The texts of the sends volumes
+     * @param sendValues The values of the sends volumes
+     * @param modulatedSendValues The modulated values of the sends volumes, -1 if not modulated
+     * @param sendEdited The states of which send can be edited
+     * @param isExMode True if the sends grid element is an extension for a track grid element
+     */
+    private void setSends (final String [] sendNames, final String [] sendTexts, final int [] sendValues, final int [] modulatedSendValues, final boolean [] sendEdited, final boolean isExMode)
+    {
         for (int i = 0; i < 4; i++)
         {
             this.sendNames[i] = sendNames[i];
@@ -91,9 +139,9 @@ public class SendsGridElement extends ChannelSelectionGridElement
 
     /** {@inheritDoc} */
     @Override
-    public void draw (final Graphics2D gc, final int left, final int width, final int height, final LayoutSettings layoutSettings) throws IOException
+    public void draw (final Graphics2D gc, final int left, final int width, final int height, final Theme theme) throws IOException
     {
-        super.draw (gc, left, width, height, layoutSettings);
+        super.draw (gc, left, width, height, theme);
 
         final String name = this.getName ();
         // Element is off if the name is empty
@@ -110,17 +158,16 @@ public class SendsGridElement extends ChannelSelectionGridElement
         final int sliderHeight = sendRowHeight - 2 * SEPARATOR_SIZE;
 
         // Background of slider area
-        final Color backgroundColor = layoutSettings.getBackgroundColor ();
-        gc.setColor (this.isSelected () || this.isExMode ? backgroundColor.brighter () : backgroundColor);
+        gc.setColor (this.isSelected () || this.isExMode ? theme.getBackgroundBrighterColor () : theme.getBackgroundColor ());
         gc.fillRect (this.isExMode ? left - SEPARATOR_SIZE : left, t, this.isExMode ? width + SEPARATOR_SIZE : width, this.isExMode ? h - 2 : h);
 
         int topy = MENU_HEIGHT + (this.isExMode ? 0 : SEPARATOR_SIZE);
 
-        gc.setFont (layoutSettings.getTextFont (sendRowHeight));
-        final Color textColor = layoutSettings.getTextColor ();
-        final Color borderColor = layoutSettings.getBorderColor ();
-        final Color faderColor = layoutSettings.getFaderColor ();
-        final Color editColor = layoutSettings.getEditColor ();
+        gc.setFont (theme.getTextFont (sendRowHeight));
+        final Color textColor = theme.getTextColor ();
+        final Color borderColor = theme.getBorderColor ();
+        final Color faderColor = theme.getFaderColor ();
+        final Color editColor = theme.getEditColor ();
         final int faderLeft = left + INSET;
         for (int i = 0; i < 4; i++)
         {
@@ -154,8 +201,8 @@ public class SendsGridElement extends ChannelSelectionGridElement
         final int boxWidth = sliderWidth / 2;
         final int boxLeft = faderLeft + sliderWidth - boxWidth;
         topy = MENU_HEIGHT;
-        final Color backgroundDarker = backgroundColor.darker ();
-        final Font textFont = layoutSettings.getTextFont (UNIT);
+        final Color backgroundDarker = theme.getBackgroundDarkerColor ();
+        final Font textFont = theme.getTextFont (UNIT);
         for (int i = 0; i < 4; i++)
         {
             topy += sendRowHeight;
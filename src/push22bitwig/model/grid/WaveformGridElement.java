@@ -0,0 +1,240 @@
+package push22bitwig.model.grid;
+
+import push22bitwig.Theme;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+
+/**
+ * An element in the grid which displays a scrolling waveform or automation lane. The samples are
+ * streamed separately from the grid and each sample is one column of pixels: a vertical line
+ * between its minimum and maximum. The newest sample is on the right.
+ *
+ * The element keeps a raster of the size of a grid column which is used as a ring: only newly
+ * arrived samples are rendered into it and when drawing, the oldest part of each row is copied to
+ * the left and the newest part to the right. Since the samples are kept across grids, the parser
+ * reuses the element of a column.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class WaveformGridElement implements PixelGridElement
+{
+    /** The maximum value of a sample, the minimum is 0. */
+    public static final int  MAX_SAMPLE  = 127;
+
+    private static final int WIDTH       = DISPLAY_WIDTH / 8 - SEPARATOR_SIZE;
+    private static final int HEIGHT      = DISPLAY_HEIGHT;
+
+    private Color            color;
+    private final byte []    minimums    = new byte [WIDTH];
+    private final byte []    maximums    = new byte [WIDTH];
+    /** The position of the next sample in the rings, which is also the position of the oldest. */
+    private int              head        = 0;
+    /** The number of samples which have not been rendered into the rasters. */
+    private int              pending     = WIDTH;
+
+    private final int []     rasterARGB  = new int [WIDTH * HEIGHT];
+    private final short []   raster565   = new short [WIDTH * HEIGHT];
+    private int              rasterColor = 0;
+    private int              rasterBack  = 0;
+
+
+    /**
+     * Constructor.
+     *
+     * @param color The color of the waveform
+     */
+    public WaveformGridElement (final Color color)
+    {
+        this.color = color;
+    }
+
+
+    /**
+     * Constructor. Creates a copy of a waveform.
+     *
+     * @param waveform The waveform to copy
+     */
+    private WaveformGridElement (final WaveformGridElement waveform)
+    {
+        this.color = waveform.color;
+        System.arraycopy (waveform.minimums, 0, this.minimums, 0, WIDTH);
+        System.arraycopy (waveform.maximums, 0, this.maximums, 0, WIDTH);
+        this.head = waveform.head;
+    }
+
+
+    /**
+     * Set the color of the waveform.
+     *
+     * @param color The color
+     */
+    public void setColor (final Color color)
+    {
+        this.color = color;
+    }
+
+
+    /**
+     * Adds a sample on the right, the oldest sample on the left is dropped.
+     *
+     * @param minimum The minimum of the sample in the range of 0 to {@link #MAX_SAMPLE}
+     * @param maximum The maximum of the sample in the range of 0 to {@link #MAX_SAMPLE}
+     */
+    public void addSample (final int minimum, final int maximum)
+    {
+        final int low = clamp (minimum);
+        final int high = clamp (maximum);
+        this.minimums[this.head] = (byte) Math.min (low, high);
+        this.maximums[this.head] = (byte) Math.max (low, high);
+        this.head = (this.head + 1) % WIDTH;
+        this.pending = Math.min (this.pending + 1, WIDTH);
+    }
+
+
+    /**
+     * Limits a sample value to the range of 0 to {@link #MAX_SAMPLE}.
+     *
+     * @param value The value
+     * @return The limited value
+     */
+    private static int clamp (final int value)
+    {
+        return Math.max (0, Math.min (value, MAX_SAMPLE));
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public WaveformGridElement snapshot ()
+    {
+        return new WaveformGridElement (this);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public void drawPixels (final BufferedImage image, final int left, final int width, final int height, final Theme theme)
+    {
+        this.renderPending (theme);
+
+        final int drawWidth = Math.min (Math.min (WIDTH, width), image.getWidth () - left);
+        final int drawHeight = Math.min (Math.min (HEIGHT, height), image.getHeight ());
+        if (drawWidth <= 0 || drawHeight <= 0)
+            return;
+
+        // Show the newest samples if the drawing area is smaller
+        final int first = (this.head + WIDTH - drawWidth) % WIDTH;
+        final int firstLength = Math.min (drawWidth, WIDTH - first);
+
+        final WritableRaster raster = image.getRaster ();
+        final int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel ()).getScanlineStride ();
+        final DataBuffer buffer = raster.getDataBuffer ();
+        final Object source = buffer instanceof DataBufferUShort ? this.raster565 : this.rasterARGB;
+        final Object destination = buffer instanceof DataBufferUShort ? ((DataBufferUShort) buffer).getData () : ((DataBufferInt) buffer).getData ();
+        for (int y = 0; y < drawHeight; y++)
+        {
+            final int row = y * WIDTH;
+            final int target = y * stride + left;
+            System.arraycopy (source, row + first, destination, target, firstLength);
+            System.arraycopy (source, row, destination, target + firstLength, drawWidth - firstLength);
+        }
+    }
+
+
+    /**
+     * Draws the waveform with the graphics context, used if the pixels cannot be written
+     * directly, e.g. for the scaled preview.
+     *
+     * @param gc The graphic context
+     * @param left The left bound of the drawing area of the element
+     * @param width The width of the drawing area of the element
+     * @param height The height of the drawing area of the element
+     * @param theme The colors and font to use
+     */
+    @Override
+    public void draw (final Graphics2D gc, final int left, final int width, final int height, final Theme theme)
+    {
+        final int drawWidth = Math.min (WIDTH, width);
+        final int drawHeight = Math.min (HEIGHT, height);
+
+        gc.setColor (theme.getBackgroundColor ());
+        gc.fillRect (left, 0, drawWidth, drawHeight);
+        gc.setColor (this.color);
+        for (int x = 0; x < drawWidth; x++)
+        {
+            final int position = (this.head + WIDTH - drawWidth + x) % WIDTH;
+            final int top = toY (this.maximums[position]);
+            gc.fillRect (left + x, top, 1, toY (this.minimums[position]) - top + 1);
+        }
+    }
+
+
+    /**
+     * Renders the samples which arrived since the last call into the rasters. All samples are
+     * rendered again if the colors have changed.
+     *
+     * @param theme The colors to use
+     */
+    private void renderPending (final Theme theme)
+    {
+        final int foreground = this.color.getRGB ();
+        final int background = theme.getBackgroundRGB ();
+        if (foreground != this.rasterColor || background != this.rasterBack)
+        {
+            this.rasterColor = foreground;
+            this.rasterBack = background;
+            this.pending = WIDTH;
+        }
+        final short foreground565 = toRGB565 (foreground);
+        final short background565 = toRGB565 (background);
+
+        for (int i = this.pending; i > 0; i--)
+        {
+            final int x = (this.head + WIDTH - i) % WIDTH;
+            final int top = toY (this.maximums[x]);
+            final int bottom = toY (this.minimums[x]);
+            for (int y = 0; y < HEIGHT; y++)
+            {
+                final boolean isSet = y >= top && y <= bottom;
+                final int index = y * WIDTH + x;
+                this.rasterARGB[index] = isSet ? foreground : background;
+                this.raster565[index] = isSet ? foreground565 : background565;
+            }
+        }
+        this.pending = 0;
+    }
+
+
+    /**
+     * Calculates the vertical position of a sample value.
+     *
+     * @param value The sample value
+     * @return The Y position, the maximum value is at the top
+     */
+    private static int toY (final int value)
+    {
+        return (MAX_SAMPLE - value) * (HEIGHT - 1) / MAX_SAMPLE;
+    }
+
+
+    /**
+     * Converts an ARGB color to RGB565.
+     *
+     * @param argb The ARGB color
+     * @return The RGB565 color
+     */
+    private static short toRGB565 (final int argb)
+    {
+        return (short) ((argb >> 8 & 0xF800) | (argb >> 5 & 0x07E0) | (argb >> 3 & 0x001F));
+    }
+}
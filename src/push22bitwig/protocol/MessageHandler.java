@@ -0,0 +1,212 @@
+package push22bitwig.protocol;
+
+import push22bitwig.metrics.PipelineMetrics;
+import push22bitwig.metrics.PipelineStage;
+import push22bitwig.model.DisplayModel;
+import push22bitwig.model.grid.GridElement;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+
+/**
+ * Handles the messages received from Bitwig. All transports (UDP, stream sockets) hand their
+ * messages to the same handler, which parses them and updates the model.
+ *
+ * A message might start with an optional sequence header: the byte 0x70 followed by a 28 bit
+ * sequence number in 4 bytes of 7 bits each (most significant first). A message which is older
+ * than the last handled one of the same transport is dropped before parsing (see
+ * {@link SequenceTracker}). Messages without the header are always handled.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class MessageHandler
+{
+    private static final int        DISPLAY_COMMAND_GRID = 10;
+    private static final int        DISPLAY_COMMAND_WAVE = 11;
+    private static final int        SEQUENCE_HEADER      = 0x70;
+    private static final int        SEQUENCE_SIZE        = 4;
+
+    private final DisplayModel      model;
+    private final ProtocolParser    parser               = new ProtocolParser ();
+    private final PacketInputStream packetInput          = new PacketInputStream ();
+
+
+    /**
+     * Constructor.
+     *
+     * @param model Where to write the received data
+     */
+    public MessageHandler (final DisplayModel model)
+    {
+        this.model = model;
+    }
+
+
+    /**
+     * Enable or disable garbage free parsing, see {@link ProtocolParser#setGarbageFree(boolean)}.
+     *
+     * @param isGarbageFree True to enable
+     */
+    public void setGarbageFree (final boolean isGarbageFree)
+    {
+        synchronized (this.model.getGridLock ())
+        {
+            this.parser.setGarbageFree (isGarbageFree);
+        }
+    }
+
+
+    /**
+     * Is garbage free parsing enabled?
+     *
+     * @return True if enabled
+     */
+    public boolean isGarbageFree ()
+    {
+        return this.parser.isGarbageFree ();
+    }
+
+
+    /**
+     * Handle the received data. Messages of different transports are handled one after the other.
+     *
+     * @param data The data buffer with the received data
+     * @param offset The offset of the message in the buffer
+     * @param length The length of the message
+     * @param sequenceTracker The sequence numbers of the transport which received the message
+     * @return True if the message was handled, false if it was malformed, superseded by a newer
+     *         message or could not be parsed
+     */
+    public synchronized boolean handleData (final byte [] data, final int offset, final int length, final SequenceTracker sequenceTracker)
+    {
+        final PipelineMetrics metrics = this.model.getMetrics ();
+        final long start = System.nanoTime ();
+
+        // -16 == 0xF0, -9 == 0xF7
+        if (length < 3 || data[offset] != -16 || data[offset + length - 1] != -9)
+        {
+            metrics.parseError ();
+            this.model.addLogMessage ("Unformatted messaged received.");
+            return false;
+        }
+
+        int commandOffset = offset + 1;
+        if (data[commandOffset] == SEQUENCE_HEADER)
+        {
+            if (length < 3 + 1 + SEQUENCE_SIZE)
+            {
+                metrics.parseError ();
+                this.model.addLogMessage ("Unformatted messaged received.");
+                return false;
+            }
+            if (!sequenceTracker.check (readSequence (data, commandOffset + 1), metrics))
+                return false;
+            commandOffset += 1 + SEQUENCE_SIZE;
+        }
+
+        boolean isHandled = true;
+        try
+        {
+            final byte command = data[commandOffset];
+            switch (command)
+            {
+                case DISPLAY_COMMAND_GRID:
+                    this.packetInput.set (data, commandOffset + 1, offset + length - commandOffset - 2);
+                    final List<GridElement> elements;
+                    // Reused elements are filled in place, they must not be drawn meanwhile
+                    synchronized (this.model.getGridLock ())
+                    {
+                        elements = this.parser.parse (this.packetInput);
+                    }
+                    metrics.record (PipelineStage.PARSE, start, System.nanoTime ());
+                    if (elements != null)
+                    {
+                        // Only a message which causes a redraw is tracked till the transfer
+                        metrics.messageReceived (start);
+                        this.model.setGridElements (elements);
+                    }
+                    break;
+
+                case DISPLAY_COMMAND_WAVE:
+                    this.packetInput.set (data, commandOffset + 1, offset + length - commandOffset - 2);
+                    final boolean isAdded;
+                    synchronized (this.model.getGridLock ())
+                    {
+                        isAdded = this.parser.parseWaveformSamples (this.packetInput);
+                    }
+                    metrics.record (PipelineStage.PARSE, start, System.nanoTime ());
+                    if (isAdded)
+                    {
+                        metrics.messageReceived (start);
+                        this.model.samplesReceived ();
+                    }
+                    break;
+
+                default:
+                    metrics.parseError ();
+                    isHandled = false;
+                    this.model.addLogMessage ("Unknown display command: " + command);
+                    break;
+            }
+        }
+        catch (final RuntimeException ex)
+        {
+            metrics.parseError ();
+            isHandled = false;
+            this.model.addLogMessage ("Error in command array: " + ex.getLocalizedMessage ());
+        }
+
+        metrics.record (PipelineStage.RECEIVE, start, System.nanoTime ());
+        return isHandled;
+    }
+
+
+    /**
+     * Reads a sequence number from 4 bytes of 7 bits each.
+     *
+     * @param data The data buffer
+     * @param offset The offset of the first byte
+     * @return The sequence number
+     */
+    private static int readSequence (final byte [] data, final int offset)
+    {
+        int sequence = 0;
+        for (int i = 0; i < SEQUENCE_SIZE; i++)
+            sequence = sequence << 7 | data[offset + i] & 0x7F;
+        return sequence;
+    }
+
+
+    /**
+     * An input stream over the received data which can be reused for the next message.
+     */
+    private static final class PacketInputStream extends ByteArrayInputStream
+    {
+        /**
+         * Constructor.
+         */
+        PacketInputStream ()
+        {
+            super (new byte [0]);
+        }
+
+
+        /**
+         * Read the given data from the start.
+         *
+         * @param data The data buffer
+         * @param offset The offset of the first byte to read
+         * @param length The number of bytes to read
+         */
+        void set (final byte [] data, final int offset, final int length)
+        {
+            this.buf = data;
+            this.pos = offset;
+            this.count = Math.min (offset + length, data.length);
+            this.mark = offset;
+        }
+    }
+}
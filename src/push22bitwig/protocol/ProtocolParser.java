@@ -1,6 +1,8 @@
 package push22bitwig.protocol;
 
+import push22bitwig.metrics.GridParsedEvent;
 import push22bitwig.model.ChannelType;
+import push22bitwig.model.grid.BitmapGridElement;
 import push22bitwig.model.grid.ChannelGridElement;
 import push22bitwig.model.grid.ChannelSelectionGridElement;
 import push22bitwig.model.grid.GridElement;
@@ -8,17 +10,24 @@ import push22bitwig.model.grid.ListGridElement;
 import push22bitwig.model.grid.OptionsGridElement;
 import push22bitwig.model.grid.ParamGridElement;
 import push22bitwig.model.grid.SendsGridElement;
+import push22bitwig.model.grid.WaveformGridElement;
+import push22bitwig.util.StringPool;
 
 import javafx.util.Pair;
 
 import java.awt.Color;
 import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 /**
- * Parses the communication protocol coming from the Push4Bitwig script.
+ * Parses the communication protocol coming from the Push4Bitwig script. Texts and colors which
+ * were already received are reused. If garbage free parsing is enabled, each column also reuses
+ * one element per element type, which is filled in place. Not thread safe.
  *
  * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
  *
@@ -26,84 +35,217 @@ import java.util.List;
  */
 public class ProtocolParser
 {
-    private static final byte GRID_ELEMENT_CHANNEL_SELECTION  = 0;
-    private static final byte GRID_ELEMENT_CHANNEL_VOLUME     = 1;
-    private static final byte GRID_ELEMENT_CHANNEL_PAN        = 2;
-    private static final byte GRID_ELEMENT_CHANNEL_CROSSFADER = 3;
-    private static final byte GRID_ELEMENT_CHANNEL_SENDS      = 4;
-    private static final byte GRID_ELEMENT_CHANNEL_ALL        = 5;
-    private static final byte GRID_ELEMENT_PARAMETER          = 6;
-    private static final byte GRID_ELEMENT_OPTIONS            = 7;
-    private static final byte GRID_ELEMENT_LIST               = 8;
+    private static final byte              GRID_ELEMENT_CHANNEL_SELECTION  = 0;
+    private static final byte              GRID_ELEMENT_CHANNEL_VOLUME     = 1;
+    private static final byte              GRID_ELEMENT_CHANNEL_PAN        = 2;
+    private static final byte              GRID_ELEMENT_CHANNEL_CROSSFADER = 3;
+    private static final byte              GRID_ELEMENT_CHANNEL_SENDS      = 4;
+    private static final byte              GRID_ELEMENT_CHANNEL_ALL        = 5;
+    private static final byte              GRID_ELEMENT_PARAMETER          = 6;
+    private static final byte              GRID_ELEMENT_OPTIONS            = 7;
+    private static final byte              GRID_ELEMENT_LIST               = 8;
+    private static final byte              GRID_ELEMENT_BITMAP             = 9;
+    private static final byte              GRID_ELEMENT_WAVEFORM           = 10;
+
+    /** Ends the runs of a bitmap. */
+    private static final int               BITMAP_RUN_END                  = 0;
+    /** A run of pixels which keep the value of the previous bitmap. */
+    private static final int               BITMAP_RUN_SKIP                 = 1;
+    /** A run of pixels with the same value. */
+    private static final int               BITMAP_RUN_REPEAT               = 2;
+    /** A run of pixels with individual values. */
+    private static final int               BITMAP_RUN_LITERAL              = 3;
+
+    private static final String []         GRID_ELEMENT_NAMES              =
+    {
+            "CHANNEL_SELECTION",
+            "CHANNEL_VOLUME",
+            "CHANNEL_PAN",
+            "CHANNEL_CROSSFADER",
+            "CHANNEL_SENDS",
+            "CHANNEL_ALL",
+            "PARAMETER",
+            "OPTIONS",
+            "LIST",
+            "BITMAP",
+            "WAVEFORM"
+    };
+
+    private static final int               COLUMNS                         = 8;
+    private static final int               DISPLAY_COLUMN_WIDTH            = GridElement.DISPLAY_WIDTH / COLUMNS;
+    private static final int               COLOR_SLOTS                     = 64;
+
+    private final int []                   parsedTypes                     = new int [COLUMNS];
+
+    private boolean                        isGarbageFree                   = false;
+    /** The reused elements, indexed by column and grid element type. */
+    private final GridElement [] []        elementPool                     = new GridElement [COLUMNS] [GRID_ELEMENT_NAMES.length];
+    private final List<GridElement>        pooledElements                  = new ArrayList<> (COLUMNS);
+    /** The bitmaps of the columns of the previous grid, against which deltas are applied. */
+    private final BitmapGridElement []     previousBitmaps                 = new BitmapGridElement [COLUMNS];
+    /** The waveforms of the columns of the current grid, to which samples are added. */
+    private final WaveformGridElement []   waveforms                       = new WaveformGridElement [COLUMNS];
+
+    private final StringPool               stringPool                      = new StringPool (256);
+    private char []                        chars                           = new char [64];
+    private final Color []                 colors                          = new Color [COLOR_SLOTS];
+    private final Map<String, ChannelType> channelTypes                    = new HashMap<> ();
+
+    private final String []                sendNames                       = new String [4];
+    private final String []                sendTexts                       = new String [4];
+    private final int []                   sendValues                      = new int [4];
+    private final int []                   modulatedSendValues             = new int [4];
+    private final boolean []               sendEdited                      = new boolean [4];
+
+
+    /**
+     * Enable or disable garbage free parsing. If enabled, the parsed elements are reused by the
+     * next call to {@link #parse(ByteArrayInputStream)} and filled in place. Therefore, elements
+     * must not be drawn while parsing and a consumer which keeps an element beyond the next grid
+     * must use a snapshot of it (see {@link GridElement#snapshot()}). If disabled, each grid creates
+     * new elements.
+     *
+     * @param isGarbageFree True to enable
+     */
+    public void setGarbageFree (final boolean isGarbageFree)
+    {
+        this.isGarbageFree = isGarbageFree;
+    }
+
+
+    /**
+     * Is garbage free parsing enabled?
+     *
+     * @return True if enabled
+     */
+    public boolean isGarbageFree ()
+    {
+        return this.isGarbageFree;
+    }
 
 
     /**
      * Parses the given data.
      *
      * @param in The byte array to parse from
-     * @return The parsed grid elements
+     * @return The parsed grid elements, if garbage free parsing is enabled the list and its
+     *         elements are reused by the next call
      */
     public List<GridElement> parse (final ByteArrayInputStream in)
     {
-        final List<GridElement> elements = new ArrayList<> (8);
-        for (int i = 0; i < 8; i++)
+        final GridParsedEvent event = new GridParsedEvent ();
+        event.begin ();
+        final int available = in.available ();
+
+        final List<GridElement> elements;
+        if (this.isGarbageFree)
+        {
+            elements = this.pooledElements;
+            elements.clear ();
+        }
+        else
+            elements = new ArrayList<> (COLUMNS);
+
+        for (int i = 0; i < COLUMNS; i++)
         {
             final GridElement el;
             final int gridType = in.read ();
+            this.parsedTypes[i] = gridType;
+            final GridElement pooled = this.isGarbageFree && gridType >= 0 && gridType < GRID_ELEMENT_NAMES.length ? this.elementPool[i][gridType] : null;
             switch ((byte) gridType)
             {
                 case GRID_ELEMENT_CHANNEL_SELECTION:
-                    el = this.parseChannelSelection (in);
+                    el = this.parseChannelSelection (in, (ChannelSelectionGridElement) pooled);
                     break;
                 case GRID_ELEMENT_CHANNEL_VOLUME:
-                    el = this.parseChannel (ChannelGridElement.EDIT_TYPE_VOLUME, in);
+                    el = this.parseChannel (ChannelGridElement.EDIT_TYPE_VOLUME, in, (ChannelGridElement) pooled);
                     break;
                 case GRID_ELEMENT_CHANNEL_PAN:
-                    el = this.parseChannel (ChannelGridElement.EDIT_TYPE_PAN, in);
+                    el = this.parseChannel (ChannelGridElement.EDIT_TYPE_PAN, in, (ChannelGridElement) pooled);
                     break;
                 case GRID_ELEMENT_CHANNEL_CROSSFADER:
-                    el = this.parseChannel (ChannelGridElement.EDIT_TYPE_CROSSFADER, in);
+                    el = this.parseChannel (ChannelGridElement.EDIT_TYPE_CROSSFADER, in, (ChannelGridElement) pooled);
                     break;
                 case GRID_ELEMENT_CHANNEL_SENDS:
-                    el = this.parseSends (in);
+                    el = this.parseSends (in, (SendsGridElement) pooled);
                     break;
                 case GRID_ELEMENT_CHANNEL_ALL:
-                    el = this.parseChannel (ChannelGridElement.EDIT_TYPE_ALL, in);
+                    el = this.parseChannel (ChannelGridElement.EDIT_TYPE_ALL, in, (ChannelGridElement) pooled);
                     break;
                 case GRID_ELEMENT_PARAMETER:
-                    el = this.parseParameter (in);
+                    el = this.parseParameter (in, (ParamGridElement) pooled);
                     break;
                 case GRID_ELEMENT_OPTIONS:
-                    el = this.parseOptions (in);
+                    el = this.parseOptions (in, (OptionsGridElement) pooled);
                     break;
                 case GRID_ELEMENT_LIST:
-                    el = this.parseList (in);
+                    el = this.parseList (in, (ListGridElement) pooled);
+                    break;
+                case GRID_ELEMENT_BITMAP:
+                    el = this.parseBitmap (in, (BitmapGridElement) pooled, this.previousBitmaps[i]);
+                    break;
+                case GRID_ELEMENT_WAVEFORM:
+                    el = this.parseWaveform (in, this.waveforms[i]);
                     break;
                 default:
                     throw new RuntimeException ("Unsupported grid element type: " + gridType);
             }
+            if (this.isGarbageFree)
+                this.elementPool[i][gridType] = el;
+            this.previousBitmaps[i] = el instanceof BitmapGridElement ? (BitmapGridElement) el : null;
+            this.waveforms[i] = el instanceof WaveformGridElement ? (WaveformGridElement) el : null;
             elements.add (el);
         }
+
+        event.end ();
+        if (event.shouldCommit ())
+        {
+            event.elementTypes = formatTypes (this.parsedTypes);
+            event.bytes = available - in.available ();
+            event.commit ();
+        }
         return elements;
     }
 
 
+    /**
+     * Formats the grid element types as a comma separated text.
+     *
+     * @param types The grid element types
+     * @return The text
+     */
+    private static String formatTypes (final int [] types)
+    {
+        final StringBuilder sb = new StringBuilder ();
+        for (final int type: types)
+        {
+            if (sb.length () > 0)
+                sb.append (',');
+            sb.append (type >= 0 && type < GRID_ELEMENT_NAMES.length ? GRID_ELEMENT_NAMES[type] : Integer.toString (type));
+        }
+        return sb.toString ();
+    }
+
+
     /**
      * Parses an empty channel element.
      *
      * @param in The byte array to parse from
+     * @param element The element to fill, null to create a new one
      * @return The parsed element
      */
-    public ChannelSelectionGridElement parseChannelSelection (final ByteArrayInputStream in)
+    public ChannelSelectionGridElement parseChannelSelection (final ByteArrayInputStream in, final ChannelSelectionGridElement element)
     {
-        final String menuName = parseString (in);
+        final String menuName = this.parseString (in);
         final boolean isMenuSelected = parseBoolean (in);
-        final String name = parseString (in);
-        final String typeText = parseString (in);
-        final ChannelType type = typeText.length () == 0 ? null : ChannelType.valueOf (typeText.toUpperCase ());
-        final Color color = parseColor (in);
+        final String name = this.parseString (in);
+        final ChannelType type = this.parseChannelType (in);
+        final Color color = this.parseColor (in);
         final boolean isSelected = parseBoolean (in);
-        return new ChannelSelectionGridElement (menuName, isMenuSelected, name, color, isSelected, type);
+        if (element == null)
+            return new ChannelSelectionGridElement (menuName, isMenuSelected, name, color, isSelected, type);
+        element.set (menuName, isMenuSelected, name, color, isSelected, type);
+        return element;
     }
 
 
@@ -112,30 +254,33 @@ public class ProtocolParser
      *
      * @param editType What is edited: Volume, Pan, Crossfader
      * @param in The byte array to parse from
+     * @param element The element to fill, null to create a new one
      * @return The parsed element
      */
-    public ChannelGridElement parseChannel (final int editType, final ByteArrayInputStream in)
+    public ChannelGridElement parseChannel (final int editType, final ByteArrayInputStream in, final ChannelGridElement element)
     {
-        final String menuName = parseString (in);
+        final String menuName = this.parseString (in);
         final boolean isMenuSelected = parseBoolean (in);
-        final String name = parseString (in);
-        String typeText = parseString (in);
-        final ChannelType type = typeText.length () == 0 ? null : ChannelType.valueOf (typeText.toUpperCase ());
-        final Color color = parseColor (in);
+        final String name = this.parseString (in);
+        final ChannelType type = this.parseChannelType (in);
+        final Color color = this.parseColor (in);
         final boolean isSelected = parseBoolean (in);
 
         final int volumeValue = parseInteger (in);
         final int modulatedVolumeValue = parseInteger (in);
-        final String volumeText = parseString (in);
+        final String volumeText = this.parseString (in);
         final int panValue = parseInteger (in);
         final int modulatedPanValue = parseInteger (in);
-        final String panText = parseString (in);
+        final String panText = this.parseString (in);
         final int vuValue = parseInteger (in);
         final boolean isMute = parseBoolean (in);
         final boolean isSolo = parseBoolean (in);
         final boolean isArm = parseBoolean (in);
         final int crossfadeMode = parseByte (in);
-        return new ChannelGridElement (editType, menuName, isMenuSelected, name, color, isSelected, type, volumeValue, modulatedVolumeValue, volumeText, panValue, modulatedPanValue, panText, vuValue, isMute, isSolo, isArm, crossfadeMode);
+        if (element == null)
+            return new ChannelGridElement (editType, menuName, isMenuSelected, name, color, isSelected, type, volumeValue, modulatedVolumeValue, volumeText, panValue, modulatedPanValue, panText, vuValue, isMute, isSolo, isArm, crossfadeMode);
+        element.set (editType, menuName, isMenuSelected, name, color, isSelected, type, volumeValue, modulatedVolumeValue, volumeText, panValue, modulatedPanValue, panText, vuValue, isMute, isSolo, isArm, crossfadeMode);
+        return element;
     }
 
 
@@ -143,34 +288,33 @@ public class ProtocolParser
      * Parses a channel element.
      *
      * @param in The byte array to parse from
+     * @param element The element to fill, null to create a new one
      * @return The parsed element
      */
-    public SendsGridElement parseSends (final ByteArrayInputStream in)
+    public SendsGridElement parseSends (final ByteArrayInputStream in, final SendsGridElement element)
     {
-        final String menuName = parseString (in);
+        final String menuName = this.parseString (in);
         final boolean isMenuSelected = parseBoolean (in);
-        final String name = parseString (in);
-        final String typeText = parseString (in);
-        final ChannelType type = typeText.length () == 0 ? null : ChannelType.valueOf (typeText.toUpperCase ());
-        final Color color = parseColor (in);
+        final String name = this.parseString (in);
+        final ChannelType type = this.parseChannelType (in);
+        final Color color = this.parseColor (in);
         final boolean isSelected = parseBoolean (in);
 
-        final String [] sendNames = new String [4];
-        final String [] sendTexts = new String [4];
-        final int [] sendValues = new int [4];
-        final int [] modulatedSendValues = new int [4];
-        final boolean [] sendEdited = new boolean [4];
+        // The element copies the arrays
         for (int i = 0; i < 4; i++)
         {
-            sendNames[i] = parseString (in);
-            sendTexts[i] = parseString (in);
-            sendValues[i] = parseInteger (in);
-            modulatedSendValues[i] = parseInteger (in);
-            sendEdited[i] = parseBoolean (in);
+            this.sendNames[i] = this.parseString (in);
+            this.sendTexts[i] = this.parseString (in);
+            this.sendValues[i] = parseInteger (in);
+            this.modulatedSendValues[i] = parseInteger (in);
+            this.sendEdited[i] = parseBoolean (in);
         }
 
         final boolean isExMode = parseBoolean (in);
-        return new SendsGridElement (sendNames, sendTexts, sendValues, modulatedSendValues, sendEdited, menuName, isMenuSelected, name, color, isSelected, type, isExMode);
+        if (element == null)
+            return new SendsGridElement (this.sendNames, this.sendTexts, this.sendValues, this.modulatedSendValues, this.sendEdited, menuName, isMenuSelected, name, color, isSelected, type, isExMode);
+        element.set (this.sendNames, this.sendTexts, this.sendValues, this.modulatedSendValues, this.sendEdited, menuName, isMenuSelected, name, color, isSelected, type, isExMode);
+        return element;
     }
 
 
@@ -178,18 +322,22 @@ public class ProtocolParser
      * Parses an options element.
      *
      * @param in The byte array to parse from
+     * @param element The element to fill, null to create a new one
      * @return The parsed element
      */
-    public OptionsGridElement parseOptions (final ByteArrayInputStream in)
+    public OptionsGridElement parseOptions (final ByteArrayInputStream in, final OptionsGridElement element)
     {
-        final String headerTopName = parseString (in);
-        final String menuTopName = parseString (in);
+        final String headerTopName = this.parseString (in);
+        final String menuTopName = this.parseString (in);
         final boolean isMenuTopSelected = parseBoolean (in);
-        final String headerBottomName = parseString (in);
-        final String menuBottomName = parseString (in);
+        final String headerBottomName = this.parseString (in);
+        final String menuBottomName = this.parseString (in);
         final boolean isMenuBottomSelected = parseBoolean (in);
         final boolean useSmallTopMenu = parseBoolean (in);
-        return new OptionsGridElement (headerTopName, menuTopName, isMenuTopSelected, headerBottomName, menuBottomName, isMenuBottomSelected, useSmallTopMenu);
+        if (element == null)
+            return new OptionsGridElement (headerTopName, menuTopName, isMenuTopSelected, headerBottomName, menuBottomName, isMenuBottomSelected, useSmallTopMenu);
+        element.set (headerTopName, menuTopName, isMenuTopSelected, headerBottomName, menuBottomName, isMenuBottomSelected, useSmallTopMenu);
+        return element;
     }
 
 
@@ -197,28 +345,31 @@ public class ProtocolParser
      * Parses a fader element.
      *
      * @param in The byte array to parse from
+     * @param element The element to fill, null to create a new one
      * @return The parsed element
      */
-    public ParamGridElement parseParameter (final ByteArrayInputStream in)
+    public ParamGridElement parseParameter (final ByteArrayInputStream in, final ParamGridElement element)
     {
-        final String menuName = parseString (in);
+        final String menuName = this.parseString (in);
         final boolean isMenuSelected = parseBoolean (in);
 
-        final String name = parseString (in);
-        final String typeText = parseString (in);
-        ChannelType type = typeText.length () == 0 ? null : ChannelType.valueOf (typeText.toUpperCase ());
+        final String name = this.parseString (in);
+        ChannelType type = this.parseChannelType (in);
         if (type == null)
             type = ChannelType.EFFECT;
-        final Color color = parseColor (in);
+        final Color color = this.parseColor (in);
         final boolean isSelected = parseBoolean (in);
 
-        final String paramName = parseString (in);
+        final String paramName = this.parseString (in);
         final int paramValue = parseInteger (in);
-        final String paramValueText = parseString (in);
+        final String paramValueText = this.parseString (in);
         final boolean isTouched = parseBoolean (in);
         final int modulatedParamValue = parseInteger (in);
 
-        return new ParamGridElement (menuName, isMenuSelected, name, type, color, isSelected, paramName, paramValue, modulatedParamValue, paramValueText, isTouched);
+        if (element == null)
+            return new ParamGridElement (menuName, isMenuSelected, name, type, color, isSelected, paramName, paramValue, modulatedParamValue, paramValueText, isTouched);
+        element.set (menuName, isMenuSelected, name, type, color, isSelected, paramName, paramValue, modulatedParamValue, paramValueText, isTouched);
+        return element;
     }
 
 
@@ -226,14 +377,22 @@ public class ProtocolParser
      * Parses a fader element.
      *
      * @param in The byte array to parse from
+     * @param element The element to fill, null to create a new one
      * @return The parsed element
      */
-    public ListGridElement parseList (final ByteArrayInputStream in)
+    public ListGridElement parseList (final ByteArrayInputStream in, final ListGridElement element)
     {
+        if (element != null)
+        {
+            for (int i = 0; i < 6; i++)
+                element.setItem (i, this.parseString (in), parseBoolean (in));
+            return element;
+        }
+
         final List<Pair<String, Boolean>> menu = new ArrayList<> ();
         for (int i = 0; i < 6; i++)
         {
-            final String menuText = parseString (in);
+            final String menuText = this.parseString (in);
             final Boolean isSelected = Boolean.valueOf (parseBoolean (in));
             menu.add (new Pair<String, Boolean> (menuText, isSelected));
         }
@@ -241,6 +400,147 @@ public class ProtocolParser
     }
 
 
+    /**
+     * Parses a bitmap element. The header contains the format (1 byte), the width and height
+     * (integers) and if the pixels are a delta against the bitmap of the same column in the
+     * previous grid (boolean). The 1 bit and 4 bit formats are followed by the palette: the number
+     * of colors (1 byte) and the colors. Then the pixels follow row by row as runs: the type of the
+     * run (1 byte), the number of pixels (integer) and the pixel values of the run, which depend on
+     * the type. A skip run keeps the pixels of the previous bitmap and has no values, a repeat run
+     * has 1 value and a literal run has a value for each pixel. The runs end with a 0 byte. A pixel
+     * value is 1 byte for the palette formats or 3 bytes with 7 bits each (least significant first)
+     * for RGB565. Pixels which are not covered by a run keep their value.
+     *
+     * @param in The byte array to parse from
+     * @param element The element to fill, null to create a new one
+     * @param previous The bitmap of the column in the previous grid, null if there was none
+     * @return The parsed element
+     */
+    public BitmapGridElement parseBitmap (final ByteArrayInputStream in, final BitmapGridElement element, final BitmapGridElement previous)
+    {
+        final int format = parseByte (in);
+        final int width = parseInteger (in);
+        final int height = parseInteger (in);
+        final boolean isDelta = parseBoolean (in);
+        if (format < BitmapGridElement.FORMAT_1BIT || format > BitmapGridElement.FORMAT_RGB565 || width < 0 || width > DISPLAY_COLUMN_WIDTH || height < 0 || height > GridElement.DISPLAY_HEIGHT)
+            throw new RuntimeException ("Unsupported bitmap: format " + format + ", " + width + "x" + height);
+
+        final BitmapGridElement bitmap = element == null ? new BitmapGridElement () : element;
+        if (isDelta && previous != null)
+        {
+            // A pooled element already contains the previous bitmap
+            if (previous != bitmap)
+                bitmap.copy (previous);
+            bitmap.setFormat (format, width, height);
+        }
+        else
+        {
+            bitmap.setFormat (format, width, height);
+            bitmap.clear ();
+        }
+
+        final int mask;
+        if (format == BitmapGridElement.FORMAT_RGB565)
+            mask = 0xFFFF;
+        else
+        {
+            mask = format == BitmapGridElement.FORMAT_1BIT ? 1 : 0xF;
+            final int colors = Math.min (parseByte (in), mask + 1);
+            for (int i = 0; i < colors; i++)
+                bitmap.setPaletteColor (i, Math.min (parseInteger (in), 255), Math.min (parseInteger (in), 255), Math.min (parseInteger (in), 255));
+        }
+
+        final int count = bitmap.getPixelCount ();
+        int index = 0;
+        int run;
+        while ((run = in.read ()) > BITMAP_RUN_END)
+        {
+            final int length = parseInteger (in);
+            if (length < 0)
+                throw new RuntimeException ("Invalid bitmap run length: " + length);
+            final int end = Math.min (index + length, count);
+            switch (run)
+            {
+                case BITMAP_RUN_SKIP:
+                    break;
+                case BITMAP_RUN_REPEAT:
+                    bitmap.fill (Math.min (index, end), end, parsePixel (in, format) & mask);
+                    break;
+                case BITMAP_RUN_LITERAL:
+                    for (int i = index; i < index + length; i++)
+                    {
+                        final int value = parsePixel (in, format) & mask;
+                        if (i < end)
+                            bitmap.setPixel (i, value);
+                    }
+                    break;
+                default:
+                    throw new RuntimeException ("Unsupported bitmap run type: " + run);
+            }
+            index += length;
+        }
+        return bitmap;
+    }
+
+
+    /**
+     * Parses a waveform element, which only contains the color of the waveform. The samples are
+     * sent with separate messages (see {@link #parseWaveformSamples(ByteArrayInputStream)}).
+     * Since the waveform keeps its samples across grids, the element of the column is reused if
+     * the column contained a waveform in the previous grid, even if garbage free parsing is off.
+     *
+     * @param in The byte array to parse from
+     * @param previous The waveform of the column in the previous grid, null if there was none
+     * @return The parsed element
+     */
+    public WaveformGridElement parseWaveform (final ByteArrayInputStream in, final WaveformGridElement previous)
+    {
+        final Color color = this.parseColor (in);
+        if (previous == null)
+            return new WaveformGridElement (color);
+        previous.setColor (color);
+        return previous;
+    }
+
+
+    /**
+     * Parses a batch of samples and adds them to the waveform of a column. The data contains the
+     * index of the column (1 byte), the number of samples (integer) and the minimum and maximum of
+     * each sample (1 byte each).
+     *
+     * @param in The byte array to parse from
+     * @return True if the column of the current grid contains a waveform and the samples were
+     *         added
+     */
+    public boolean parseWaveformSamples (final ByteArrayInputStream in)
+    {
+        final int column = in.read ();
+        final int count = parseInteger (in);
+        final WaveformGridElement waveform = column >= 0 && column < COLUMNS ? this.waveforms[column] : null;
+        // Reject a truncated batch instead of filling the ring with end of data values
+        if (waveform == null || count < 0 || in.available () < 2 * count)
+            return false;
+        for (int i = 0; i < count; i++)
+            waveform.addSample (in.read (), in.read ());
+        return count > 0;
+    }
+
+
+    /**
+     * Parses the value of a bitmap pixel.
+     *
+     * @param in The byte array to parse from
+     * @param format The format of the bitmap
+     * @return The palette index or RGB565 color
+     */
+    private static int parsePixel (final ByteArrayInputStream in, final int format)
+    {
+        if (format != BitmapGridElement.FORMAT_RGB565)
+            return in.read ();
+        return in.read () | in.read () << 7 | in.read () << 14;
+    }
+
+
     /**
      * Parses a 2 byte with 14 bit integer.
      *
@@ -278,37 +578,65 @@ public class ProtocolParser
 
 
     /**
-     * Parses a 0 terminated string.
+     * Parses a 0 terminated string. A string with the same characters as a previously parsed one
+     * is returned from the pool.
      *
      * @param in The byte array to parse from
      * @return The parsed string
      */
-    public static String parseString (final ByteArrayInputStream in)
+    private String parseString (final ByteArrayInputStream in)
     {
-        final StringBuilder sb = new StringBuilder ();
+        int length = 0;
         int c;
         while ((c = in.read ()) != 0)
         {
+            if (length == this.chars.length)
+                this.chars = Arrays.copyOf (this.chars, 2 * length);
             if (c > 0 && c < 128)
-                sb.append ((char) c);
+                this.chars[length++] = (char) c;
             else
-                sb.append ((char) parseInteger (in));
+                this.chars[length++] = (char) parseInteger (in);
         }
-        return sb.toString ();
+        return this.stringPool.get (this.chars, length);
+    }
+
+
+    /**
+     * Parses the type of a channel.
+     *
+     * @param in The byte array to parse from
+     * @return The type, null if the text is empty
+     */
+    private ChannelType parseChannelType (final ByteArrayInputStream in)
+    {
+        final String typeText = this.parseString (in);
+        if (typeText.length () == 0)
+            return null;
+        return this.channelTypes.computeIfAbsent (typeText, text -> ChannelType.valueOf (text.toUpperCase ()));
     }
 
 
     /**
-     * Parses a color.
+     * Parses a color. A color with the same value as a previously parsed one is reused.
      *
      * @param in The byte array to parse from
      * @return The parsed color
      */
-    private static Color parseColor (final ByteArrayInputStream in)
+    private Color parseColor (final ByteArrayInputStream in)
     {
         final int r = parseInteger (in);
         final int g = parseInteger (in);
         final int b = parseInteger (in);
-        return r == 0 && g == 0 && b == 0 ? Color.GRAY : new Color (r, g, b);
+        if (r == 0 && g == 0 && b == 0)
+            return Color.GRAY;
+
+        final int hash = (r << 16 ^ g << 8 ^ b) * 0x9E3779B1;
+        final int slot = (hash ^ hash >>> 16) & (COLOR_SLOTS - 1);
+        final Color color = this.colors[slot];
+        if (color != null && color.getRed () == r && color.getGreen () == g && color.getBlue () == b)
+            return color;
+        final Color created = new Color (r, g, b);
+        this.colors[slot] = created;
+        return created;
     }
 }
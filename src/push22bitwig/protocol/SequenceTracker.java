@@ -0,0 +1,80 @@
+package push22bitwig.protocol;
+
+import push22bitwig.metrics.PipelineMetrics;
+
+
+/**
+ * Tracks the sequence numbers of the messages received via one transport (see
+ * {@link MessageHandler}). Since each grid message contains the full state, a message which is
+ * older than the last handled one is superseded and dropped. Each transport has its own tracker,
+ * which is reset when a new connection is accepted. A sender which starts again (e.g. after the
+ * script was reloaded in Bitwig) starts with sequence number 0, which is always accepted. Not
+ * thread safe, must only be used by the thread which receives the messages.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class SequenceTracker
+{
+    /** A sequence number which is further behind is considered as a restart of the sender. */
+    private static final int RESTART_DISTANCE = 1024;
+
+    private boolean          hasSequence      = false;
+    private int              lastSequence;
+    /** The number of skipped sequence numbers which have not arrived (yet). */
+    private long             missingCount     = 0;
+
+
+    /**
+     * Forget the last sequence number, e.g. if a new sender connected.
+     */
+    public void reset ()
+    {
+        this.hasSequence = false;
+        this.missingCount = 0;
+    }
+
+
+    /**
+     * Checks the sequence number of a message against the one of the last handled message.
+     *
+     * @param sequence The sequence number of the message
+     * @param metrics Where to count lost and reordered messages
+     * @return True if the message is newer and should be handled
+     */
+    public boolean check (final int sequence, final PipelineMetrics metrics)
+    {
+        // The sender has started again
+        if (sequence == 0)
+            this.reset ();
+
+        if (!this.hasSequence)
+        {
+            this.hasSequence = true;
+            this.lastSequence = sequence;
+            return true;
+        }
+
+        // Signed difference of the 28 bit numbers, handles the wrap around
+        final int distance = sequence - this.lastSequence << 4 >> 4;
+        if (distance <= 0 && distance > -RESTART_DISTANCE)
+        {
+            metrics.messageReordered ();
+            // The message was counted as lost when the gap was detected
+            if (distance < 0 && this.missingCount > 0)
+            {
+                this.missingCount--;
+                metrics.messageRecovered ();
+            }
+            return false;
+        }
+        if (distance > 1 && distance <= RESTART_DISTANCE)
+        {
+            this.missingCount += distance - 1L;
+            metrics.messagesLost (distance - 1L);
+        }
+        this.lastSequence = sequence;
+        return true;
+    }
+}
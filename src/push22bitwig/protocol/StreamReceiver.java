@@ -0,0 +1,229 @@
+package push22bitwig.protocol;
+
+import push22bitwig.model.DisplayModel;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+
+/**
+ * Receives data from Bitwig via a stream socket: either a Unix domain socket or a TCP socket on the
+ * loopback interface. Compared to UDP the messages are delivered reliably and in order and are not
+ * limited in size. Each message is prefixed by its length as a 4 byte big endian integer. Several
+ * messages are read with one call if they are already available. One connection is handled at a
+ * time.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class StreamReceiver
+{
+    private static final int             LENGTH_SIZE      = 4;
+    /** Larger messages are considered to be corrupted and close the connection. */
+    private static final int             MAX_MESSAGE_SIZE = 1024 * 1024;
+
+    private final DisplayModel           model;
+    private final MessageHandler         handler;
+    private final SequenceTracker        sequenceTracker  = new SequenceTracker ();
+    private volatile ServerSocketChannel serverChannel;
+    private volatile SocketChannel       clientChannel;
+    private Path                         socketPath;
+    /** The received data, which is reused for all messages. */
+    private ByteBuffer                   buffer           = ByteBuffer.allocate (64 * 1024);
+
+    private final Object                 serverLock       = new Object ();
+
+
+    /**
+     * Constructor.
+     *
+     * @param model Where to log
+     * @param handler Handles the received messages
+     */
+    public StreamReceiver (final DisplayModel model, final MessageHandler handler)
+    {
+        this.model = model;
+        this.handler = handler;
+    }
+
+
+    /**
+     * Start receiving on a Unix domain socket. An existing file of the socket is replaced.
+     *
+     * @param path The path of the socket file
+     */
+    public void startUnixDomainSocket (final Path path)
+    {
+        this.stop ();
+
+        try
+        {
+            Files.deleteIfExists (path);
+            final ServerSocketChannel channel = ServerSocketChannel.open (StandardProtocolFamily.UNIX);
+            channel.bind (UnixDomainSocketAddress.of (path));
+            this.socketPath = path;
+            this.start (channel, "Unix domain socket " + path);
+        }
+        catch (final IOException | UnsupportedOperationException ex)
+        {
+            this.model.addLogMessage ("Could not open Unix domain socket " + path + ": " + ex.getLocalizedMessage ());
+        }
+    }
+
+
+    /**
+     * Start receiving on a TCP port of the loopback interface.
+     *
+     * @param port The number of the port on which to receive
+     */
+    public void startTCP (final int port)
+    {
+        this.stop ();
+
+        try
+        {
+            final ServerSocketChannel channel = ServerSocketChannel.open ();
+            channel.bind (new InetSocketAddress (InetAddress.getLoopbackAddress (), port));
+            this.start (channel, "TCP port " + port);
+        }
+        catch (final IOException ex)
+        {
+            this.model.addLogMessage ("Could not open TCP port " + port + ": " + ex.getLocalizedMessage ());
+        }
+    }
+
+
+    /**
+     * Start the thread which accepts the connections.
+     *
+     * @param channel The bound server channel
+     * @param description The description of the transport for logging
+     */
+    private void start (final ServerSocketChannel channel, final String description)
+    {
+        this.serverChannel = channel;
+        this.model.addLogMessage ("Starting stream server on " + description + ".");
+
+        new Thread ( () -> {
+            synchronized (this.serverLock)
+            {
+                while (channel.isOpen ())
+                {
+                    try (final SocketChannel client = channel.accept ())
+                    {
+                        this.clientChannel = client;
+                        // A new connection is a new sender
+                        this.sequenceTracker.reset ();
+                        this.receive (client);
+                    }
+                    catch (final AsynchronousCloseException ex)
+                    {
+                        // Stopped
+                    }
+                    catch (final IOException ex)
+                    {
+                        if (channel.isOpen ())
+                            this.model.addLogMessage (ex.getLocalizedMessage ());
+                    }
+                }
+            }
+        }, "Stream Receiver").start ();
+    }
+
+
+    /**
+     * Stop the stream server and closes the current connection.
+     */
+    public void stop ()
+    {
+        final ServerSocketChannel channel = this.serverChannel;
+        if (channel == null)
+            return;
+        this.serverChannel = null;
+
+        this.model.addLogMessage ("Stopping stream server.");
+        try
+        {
+            channel.close ();
+            final SocketChannel client = this.clientChannel;
+            if (client != null)
+                client.close ();
+        }
+        catch (final IOException ex)
+        {
+            this.model.addLogMessage (ex.getLocalizedMessage ());
+        }
+
+        // Wait till thread has stopped
+        synchronized (this.serverLock)
+        {
+            if (this.socketPath != null)
+            {
+                try
+                {
+                    Files.deleteIfExists (this.socketPath);
+                }
+                catch (final IOException ex)
+                {
+                    this.model.addLogMessage (ex.getLocalizedMessage ());
+                }
+                this.socketPath = null;
+            }
+            this.model.addLogMessage ("Stream server stopped.");
+        }
+    }
+
+
+    /**
+     * Reads the messages of a connection until it is closed.
+     *
+     * @param client The connection
+     * @throws IOException Could not read or the data is corrupted
+     */
+    private void receive (final SocketChannel client) throws IOException
+    {
+        this.buffer.clear ();
+        while (true)
+        {
+            if (client.read (this.buffer) < 0)
+                return;
+
+            // Handle all completely received messages
+            this.buffer.flip ();
+            int required = LENGTH_SIZE;
+            while (this.buffer.remaining () >= LENGTH_SIZE)
+            {
+                final int position = this.buffer.position ();
+                final int length = this.buffer.getInt (position);
+                if (length <= 0 || length > MAX_MESSAGE_SIZE)
+                    throw new IOException ("Invalid message length: " + length);
+                required = LENGTH_SIZE + length;
+                if (this.buffer.remaining () < required)
+                    break;
+                this.handler.handleData (this.buffer.array (), position + LENGTH_SIZE, length, this.sequenceTracker);
+                this.buffer.position (position + required);
+                required = LENGTH_SIZE;
+            }
+            this.buffer.compact ();
+
+            // Grow the buffer if the next message does not fit
+            if (required > this.buffer.capacity ())
+            {
+                final ByteBuffer larger = ByteBuffer.allocate (Integer.highestOneBit (required) << 1);
+                this.buffer.flip ();
+                larger.put (this.buffer);
+                this.buffer = larger;
+            }
+        }
+    }
+}
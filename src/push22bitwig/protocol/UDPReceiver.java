@@ -1,14 +1,12 @@
 package push22bitwig.protocol;
 
+import push22bitwig.metrics.PipelineMetrics;
 import push22bitwig.model.DisplayModel;
-import push22bitwig.model.grid.GridElement;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
-import java.util.List;
 
 
 /**
@@ -20,23 +18,24 @@ import java.util.List;
  */
 public class UDPReceiver
 {
-    private static final int     DISPLAY_COMMAND_GRID = 10;
+    private DisplayModel          model;
+    private final MessageHandler  handler;
+    private final SequenceTracker sequenceTracker = new SequenceTracker ();
+    private DatagramSocket        socket;
 
-    private DisplayModel         model;
-    private DatagramSocket       socket;
-    private final ProtocolParser parser               = new ProtocolParser ();
-
-    private final Object         socketLock           = new Object ();
+    private final Object          socketLock      = new Object ();
 
 
     /**
      * Constructor.
      *
-     * @param model Where to write the received data
+     * @param model Where to log
+     * @param handler Handles the received messages
      */
-    public UDPReceiver (final DisplayModel model)
+    public UDPReceiver (final DisplayModel model, final MessageHandler handler)
     {
         this.model = model;
+        this.handler = handler;
     }
 
 
@@ -57,15 +56,23 @@ public class UDPReceiver
                 try
                 {
                     this.socket = new DatagramSocket (port);
+                    this.sequenceTracker.reset ();
 
+                    // The data is handled before the next packet is received, therefore the
+                    // buffer can be reused
+                    final byte [] buffer = new byte [1024];
+                    final DatagramPacket packet = new DatagramPacket (buffer, buffer.length);
+                    final PipelineMetrics metrics = this.model.getMetrics ();
                     while (true)
                     {
                         // Wait for request
-                        final DatagramPacket packet = new DatagramPacket (new byte [1024], 1024);
+                        packet.setLength (buffer.length);
                         this.socket.receive (packet);
 
                         // Read packet
-                        UDPReceiver.this.handleData (packet.getData (), packet.getLength ());
+                        metrics.udpPacketReceived ();
+                        if (!this.handler.handleData (packet.getData (), 0, packet.getLength (), this.sequenceTracker))
+                            metrics.udpPacketDropped ();
                     }
                 }
                 catch (final SocketException ex)
@@ -99,48 +106,4 @@ public class UDPReceiver
             this.model.addLogMessage ("UDP server stopped.");
         }
     }
-
-
-    /**
-     * Handle the received data.
-     *
-     * @param data The data buffer with the received data
-     * @param length The length of usable data in the buffer
-     */
-    public void handleData (final byte [] data, final int length)
-    {
-        // -16 == 0xF0, -9 == 0xF7
-        if (data[0] != -16 || data[length - 1] != -9)
-        {
-            this.model.addLogMessage ("Unformatted messaged received.");
-            return;
-        }
-
-        try
-        {
-            switch (data[1])
-            {
-                case DISPLAY_COMMAND_GRID:
-                    try (final ByteArrayInputStream in = new ByteArrayInputStream (data, 2, length - 3))
-                    {
-                        final List<GridElement> elements = this.parser.parse (in);
-                        if (elements != null)
-                            this.model.setGridElements (elements);
-                    }
-                    catch (final IOException ex)
-                    {
-                        this.model.addLogMessage ("Unparsable grid element message: " + ex.getLocalizedMessage ());
-                    }
-                    break;
-
-                default:
-                    this.model.addLogMessage ("Unknown display command: " + data[1]);
-                    break;
-            }
-        }
-        catch (final RuntimeException ex)
-        {
-            this.model.addLogMessage ("Error in command array: " + ex.getLocalizedMessage ());
-        }
-    }
 }
@@ -0,0 +1,316 @@
+package push22bitwig.stream;
+
+import push22bitwig.VirtualDisplay;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+
+
+/**
+ * Encodes and decodes the frames of the display for streaming. The pixels are RGB565 colors of the
+ * 960 x 160 pixels of the display. Each message consists of:
+ *
+ * <ul>
+ * <li>The length of the rest of the message as a 4 byte integer.
+ * <li>The type: {@link #TYPE_KEYFRAME} or {@link #TYPE_DELTA}.
+ * <li>The sequence number of the frame (8 bytes).
+ * <li>The time when the frame was captured in microseconds since the epoch (8 bytes).
+ * <li>A keyframe contains all pixels, run length encoded.
+ * <li>A delta contains the number of changed tiles (2 bytes) followed by the index (2 bytes) and
+ * the run length encoded pixels of each changed tile. The pixels are XORed with the ones of the
+ * previous frame, therefore unchanged pixels are 0 and form long runs.
+ * </ul>
+ *
+ * The client acknowledges each decoded message with one byte (see {@link #ACKNOWLEDGE}). The
+ * server sends at most {@link #MAX_UNACKNOWLEDGED} messages ahead, therefore the frames are not
+ * queued up in the socket buffers if the client is slow.
+ *
+ * The run length encoding works on 16 bit values. A control byte of 0 to 127 is followed by 1 to
+ * 128 literal values, a control byte of 128 to 255 is followed by one value which is repeated 2 to
+ * 129 times. All numbers are big endian. Not thread safe.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class FrameCodec
+{
+    /** The width of a frame in pixels. */
+    public static final int  WIDTH              = 960;
+    /** The height of a frame in pixels. */
+    public static final int  HEIGHT             = 160;
+    /** The number of pixels of a frame. */
+    public static final int  PIXELS             = WIDTH * HEIGHT;
+
+    /** A message with all pixels. */
+    public static final byte TYPE_KEYFRAME      = 0;
+    /** A message with the tiles which changed since the previous message. */
+    public static final byte TYPE_DELTA         = 1;
+
+    /** The byte sent by the client after it has decoded a message. */
+    public static final byte ACKNOWLEDGE        = 1;
+    /** The number of messages which are sent without waiting for their acknowledgement. */
+    public static final int  MAX_UNACKNOWLEDGED = 2;
+
+    /** The size of the length, type, sequence and time at the start of a message. */
+    public static final int  HEADER_SIZE        = 4 + 1 + 8 + 8;
+
+    private static final int TILE_SIZE          = 32;
+    private static final int TILES_X            = WIDTH / TILE_SIZE;
+    private static final int TILE_COUNT         = TILES_X * (HEIGHT / TILE_SIZE);
+    private static final int TILE_PIXELS        = TILE_SIZE * TILE_SIZE;
+
+    private static final int MAX_LITERALS       = 128;
+    private static final int MAX_REPEATS        = 129;
+
+    /** No message can be larger, even if nothing can be compressed. */
+    public static final int  MAX_MESSAGE_SIZE   = HEADER_SIZE + 2 + TILE_COUNT * (2 + TILE_PIXELS * 2 + TILE_PIXELS / MAX_LITERALS);
+
+    private final short []   tile               = new short [TILE_PIXELS];
+
+
+    /**
+     * Copies the pixels of an image of the virtual display and converts them to RGB565 if
+     * necessary.
+     *
+     * @param image The image, either RGB565 with the line width of the device or ARGB
+     * @param pixels Where to store the pixels, must have the size of {@link #PIXELS}
+     */
+    public static void capture (final BufferedImage image, final short [] pixels)
+    {
+        final DataBuffer buffer = image.getRaster ().getDataBuffer ();
+        final int stride = ((SinglePixelPackedSampleModel) image.getRaster ().getSampleModel ()).getScanlineStride ();
+        if (buffer instanceof DataBufferUShort)
+        {
+            final short [] data = ((DataBufferUShort) buffer).getData ();
+            for (int y = 0; y < HEIGHT; y++)
+                System.arraycopy (data, y * stride, pixels, y * WIDTH, WIDTH);
+            return;
+        }
+
+        final int [] data = ((DataBufferInt) buffer).getData ();
+        for (int y = 0; y < HEIGHT; y++)
+        {
+            final int source = y * stride;
+            final int destination = y * WIDTH;
+            for (int x = 0; x < WIDTH; x++)
+            {
+                final int argb = data[source + x];
+                pixels[destination + x] = (short) (argb >> 8 & 0xF800 | argb >> 5 & 0x07E0 | argb >> 3 & 0x001F);
+            }
+        }
+    }
+
+
+    /**
+     * Get the current time with the resolution used in the messages.
+     *
+     * @return The time in microseconds since the epoch
+     */
+    public static long currentTimeMicros ()
+    {
+        final Instant now = Instant.now ();
+        return now.getEpochSecond () * 1_000_000L + now.getNano () / 1000;
+    }
+
+
+    /**
+     * Encodes a message with all pixels.
+     *
+     * @param pixels The pixels of the frame
+     * @param sequence The sequence number of the frame, see
+     *            {@link VirtualDisplay#getImageSequence()}
+     * @param time The capture time of the frame in microseconds since the epoch
+     * @param out Where to write the message, must have room for {@link #MAX_MESSAGE_SIZE} bytes
+     */
+    public void encodeKeyframe (final short [] pixels, final long sequence, final long time, final ByteBuffer out)
+    {
+        final int start = out.position ();
+        writeHeader (out, TYPE_KEYFRAME, sequence, time);
+        encodeRuns (pixels, PIXELS, out);
+        out.putInt (start, out.position () - start - 4);
+    }
+
+
+    /**
+     * Encodes a message with the tiles which differ between two frames.
+     *
+     * @param previous The pixels of the previously sent frame
+     * @param pixels The pixels of the frame
+     * @param sequence The sequence number of the frame
+     * @param time The capture time of the frame in microseconds since the epoch
+     * @param out Where to write the message, must have room for {@link #MAX_MESSAGE_SIZE} bytes
+     * @return The number of changed tiles
+     */
+    public int encodeDelta (final short [] previous, final short [] pixels, final long sequence, final long time, final ByteBuffer out)
+    {
+        final int start = out.position ();
+        writeHeader (out, TYPE_DELTA, sequence, time);
+        final int countPosition = out.position ();
+        out.putShort ((short) 0);
+
+        int changed = 0;
+        for (int index = 0; index < TILE_COUNT; index++)
+        {
+            final int first = index / TILES_X * TILE_SIZE * WIDTH + index % TILES_X * TILE_SIZE;
+            int difference = 0;
+            for (int y = 0; y < TILE_SIZE; y++)
+            {
+                final int row = first + y * WIDTH;
+                for (int x = 0; x < TILE_SIZE; x++)
+                {
+                    final short value = (short) (pixels[row + x] ^ previous[row + x]);
+                    this.tile[y * TILE_SIZE + x] = value;
+                    difference |= value;
+                }
+            }
+            if (difference == 0)
+                continue;
+
+            out.putShort ((short) index);
+            encodeRuns (this.tile, TILE_PIXELS, out);
+            changed++;
+        }
+
+        out.putShort (countPosition, (short) changed);
+        out.putInt (start, out.position () - start - 4);
+        return changed;
+    }
+
+
+    /**
+     * Decodes a message and applies it to the pixels. The buffer must be positioned after the
+     * header, the header fields can be read with the absolute methods at their offsets.
+     *
+     * @param type The type of the message
+     * @param in The rest of the message
+     * @param pixels The pixels of the previous frame, which are updated
+     */
+    public void decode (final byte type, final ByteBuffer in, final short [] pixels)
+    {
+        if (type == TYPE_KEYFRAME)
+        {
+            decodeRuns (in, pixels, PIXELS);
+            return;
+        }
+
+        final int changed = in.getShort ();
+        for (int i = 0; i < changed; i++)
+        {
+            final int index = in.getShort ();
+            decodeRuns (in, this.tile, TILE_PIXELS);
+            final int first = index / TILES_X * TILE_SIZE * WIDTH + index % TILES_X * TILE_SIZE;
+            for (int y = 0; y < TILE_SIZE; y++)
+            {
+                final int row = first + y * WIDTH;
+                for (int x = 0; x < TILE_SIZE; x++)
+                    pixels[row + x] ^= this.tile[y * TILE_SIZE + x];
+            }
+        }
+    }
+
+
+    /**
+     * Writes the header of a message. The length is written when the message is complete.
+     *
+     * @param out Where to write
+     * @param type The type of the message
+     * @param sequence The sequence number of the frame
+     * @param time The capture time of the frame
+     */
+    private static void writeHeader (final ByteBuffer out, final byte type, final long sequence, final long time)
+    {
+        out.putInt (0);
+        out.put (type);
+        out.putLong (sequence);
+        out.putLong (time);
+    }
+
+
+    /**
+     * Run length encodes values.
+     *
+     * @param values The values
+     * @param count The number of values to encode
+     * @param out Where to write the runs
+     */
+    private static void encodeRuns (final short [] values, final int count, final ByteBuffer out)
+    {
+        int position = 0;
+        while (position < count)
+        {
+            final int repeats = countRepeats (values, position, count);
+            if (repeats >= 2)
+            {
+                out.put ((byte) (128 + repeats - 2));
+                out.putShort (values[position]);
+                position += repeats;
+                continue;
+            }
+
+            // Collect literals till the next repetition starts
+            int end = position + 1;
+            while (end < count && end - position < MAX_LITERALS && values[end] != values[end - 1])
+                end++;
+            if (end < count && values[end] == values[end - 1] && end - 1 > position)
+                end--;
+            out.put ((byte) (end - position - 1));
+            for (int i = position; i < end; i++)
+                out.putShort (values[i]);
+            position = end;
+        }
+    }
+
+
+    /**
+     * Counts the number of equal values.
+     *
+     * @param values The values
+     * @param position The position of the first value
+     * @param count The number of values
+     * @return The number of values equal to the first one, at most {@link #MAX_REPEATS}
+     */
+    private static int countRepeats (final short [] values, final int position, final int count)
+    {
+        final short value = values[position];
+        final int end = Math.min (count, position + MAX_REPEATS);
+        int i = position + 1;
+        while (i < end && values[i] == value)
+            i++;
+        return i - position;
+    }
+
+
+    /**
+     * Decodes run length encoded values.
+     *
+     * @param in The runs
+     * @param values Where to store the values
+     * @param count The number of values to decode
+     */
+    private static void decodeRuns (final ByteBuffer in, final short [] values, final int count)
+    {
+        int position = 0;
+        while (position < count)
+        {
+            final int control = in.get () & 0xFF;
+            if (control >= 128)
+            {
+                final int end = position + control - 128 + 2;
+                final short value = in.getShort ();
+                while (position < end)
+                    values[position++] = value;
+            }
+            else
+            {
+                for (int i = 0; i <= control; i++)
+                    values[position++] = in.getShort ();
+            }
+        }
+    }
+}
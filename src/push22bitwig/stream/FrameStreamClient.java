@@ -0,0 +1,168 @@
+package push22bitwig.stream;
+
+import push22bitwig.metrics.LatencyHistogram;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Locale;
+
+
+/**
+ * A client for the frame stream server which decodes the frames and measures the bandwidth, the
+ * number of skipped frames and the latency from capturing a frame till it is decoded. The latency
+ * is only meaningful if the clocks of both machines are synchronized, e.g. if the client runs on
+ * the same machine. Prints a line per second and a summary at the end.
+ *
+ * <pre>
+ * java push22bitwig.stream.FrameStreamClient [host] [port] [seconds]
+ * </pre>
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class FrameStreamClient
+{
+    private final FrameCodec       codec           = new FrameCodec ();
+    private final short []         pixels          = new short [FrameCodec.PIXELS];
+    private final ByteBuffer       buffer          = ByteBuffer.allocate (FrameCodec.MAX_MESSAGE_SIZE);
+    private final ByteBuffer       acknowledgement = ByteBuffer.allocate (1);
+    private final LatencyHistogram latencies       = new LatencyHistogram ();
+
+    private long                   bytes;
+    private long                   frames;
+    private long                   keyframes;
+    private long                   skipped;
+    private long                   lastSequence;
+
+
+    /**
+     * Main function.
+     *
+     * @param args The optional host (default 127.0.0.1), port (default 7100) and the duration of
+     *            the measurement in seconds (default 10)
+     */
+    public static void main (final String [] args)
+    {
+        final String host = args.length > 0 ? args[0] : "127.0.0.1";
+        final int port = args.length > 1 ? Integer.parseInt (args[1]) : 7100;
+        final int seconds = args.length > 2 ? Integer.parseInt (args[2]) : 10;
+
+        try
+        {
+            new FrameStreamClient ().measure (new InetSocketAddress (host, port), seconds);
+        }
+        catch (final IOException ex)
+        {
+            System.err.println ("Could not receive frames: " + ex.getLocalizedMessage ());
+        }
+    }
+
+
+    /**
+     * Receives frames for the given duration.
+     *
+     * @param address The address of the server
+     * @param seconds The duration in seconds
+     * @throws IOException Could not connect or read
+     */
+    public void measure (final InetSocketAddress address, final int seconds) throws IOException
+    {
+        try (final SocketChannel channel = SocketChannel.open (address))
+        {
+            final long start = System.nanoTime ();
+            final long end = start + seconds * 1_000_000_000L;
+            long nextReport = start + 1_000_000_000L;
+            long reportBytes = 0;
+            long reportFrames = 0;
+
+            while (System.nanoTime () < end)
+            {
+                this.receive (channel);
+
+                final long now = System.nanoTime ();
+                if (now >= nextReport)
+                {
+                    System.out.println (String.format (Locale.US, "%6.1f KB/s %4d frames/s %6d skipped, latency p50 %6d us, p99 %6d us", Double.valueOf ((this.bytes - reportBytes) / 1024.0), Long.valueOf (this.frames - reportFrames), Long.valueOf (this.skipped), Long.valueOf (this.latencies.getPercentile (50)), Long.valueOf (this.latencies.getPercentile (99))));
+                    reportBytes = this.bytes;
+                    reportFrames = this.frames;
+                    nextReport += 1_000_000_000L;
+                }
+            }
+
+            final double duration = (System.nanoTime () - start) / 1_000_000_000.0;
+            System.out.println (this.formatSummary (duration));
+        }
+    }
+
+
+    /**
+     * Reads, decodes and acknowledges one message.
+     *
+     * @param channel The channel to read from
+     * @throws IOException Could not read or the data is corrupted
+     */
+    private void receive (final SocketChannel channel) throws IOException
+    {
+        this.buffer.clear ().limit (4);
+        readFully (channel, this.buffer);
+        final int length = this.buffer.getInt (0);
+        if (length < FrameCodec.HEADER_SIZE - 4 || length > FrameCodec.MAX_MESSAGE_SIZE - 4)
+            throw new IOException ("Invalid message length: " + length);
+        this.buffer.limit (4 + length);
+        readFully (channel, this.buffer);
+
+        this.buffer.flip ();
+        final byte type = this.buffer.get (4);
+        final long sequence = this.buffer.getLong (5);
+        final long time = this.buffer.getLong (13);
+        this.buffer.position (FrameCodec.HEADER_SIZE);
+        this.codec.decode (type, this.buffer, this.pixels);
+        this.latencies.recordNanos ((FrameCodec.currentTimeMicros () - time) * 1000);
+
+        this.acknowledgement.clear ();
+        this.acknowledgement.put (FrameCodec.ACKNOWLEDGE).flip ();
+        channel.write (this.acknowledgement);
+
+        if (type == FrameCodec.TYPE_KEYFRAME)
+            this.keyframes++;
+        else if (sequence > this.lastSequence + 1)
+            this.skipped += sequence - this.lastSequence - 1;
+        this.lastSequence = sequence;
+        this.bytes += 4 + length;
+        this.frames++;
+    }
+
+
+    /**
+     * Formats the results.
+     *
+     * @param duration The duration of the measurement in seconds
+     * @return The formatted text
+     */
+    public String formatSummary (final double duration)
+    {
+        final double average = this.frames == 0 ? 0 : this.bytes / (double) this.frames;
+        return String.format (Locale.US, "%d frames (%d keyframes, %d skipped) in %.1f s, %.1f KB/s, %.0f bytes per frame, latency avg %.0f us, p50 %d us, p99 %d us, max %d us", Long.valueOf (this.frames), Long.valueOf (this.keyframes), Long.valueOf (this.skipped), Double.valueOf (duration), Double.valueOf (this.bytes / 1024.0 / duration), Double.valueOf (average), Double.valueOf (this.latencies.getMean ()), Long.valueOf (this.latencies.getPercentile (50)), Long.valueOf (this.latencies.getPercentile (99)), Long.valueOf (this.latencies.getMax ()));
+    }
+
+
+    /**
+     * Reads till the buffer is full.
+     *
+     * @param channel The channel to read from
+     * @param buffer The buffer to fill up to its limit
+     * @throws IOException Could not read or the connection was closed
+     */
+    private static void readFully (final SocketChannel channel, final ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining ())
+        {
+            if (channel.read (buffer) < 0)
+                throw new EOFException ("Connection closed by the server.");
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package push22bitwig.stream;
+
+import push22bitwig.VirtualDisplay;
+import push22bitwig.model.DisplayModel;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Streams the frames of the virtual display via TCP, e.g. to watch the display on another machine.
+ * A client first receives a keyframe and afterwards only the tiles which changed (see
+ * {@link FrameCodec}). A frame is only sent if the display was drawn again. Each client has its
+ * own sender thread. If a client does not acknowledge the messages as fast as new frames are drawn,
+ * the frames which were replaced in the meantime are skipped and the next message contains the
+ * difference to the latest frame.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class FrameStreamServer
+{
+    private static final int             MAX_CLIENTS    = 8;
+
+    private final DisplayModel           model;
+    private volatile ServerSocketChannel serverChannel;
+    private final List<Client>           clients        = new CopyOnWriteArrayList<> ();
+    private int                          clientCounter  = 0;
+
+    /** The latest frame, which is picked up by the clients. */
+    private final short []               latestPixels   = new short [FrameCodec.PIXELS];
+    private long                         latestSequence = -1;
+    private long                         latestTime;
+    private final Object                 frameLock      = new Object ();
+    private final Object                 serverLock     = new Object ();
+
+
+    /**
+     * Constructor.
+     *
+     * @param model Where to log
+     */
+    public FrameStreamServer (final DisplayModel model)
+    {
+        this.model = model;
+    }
+
+
+    /**
+     * Start the server.
+     *
+     * @param address The address of the interface to listen on, e.g. 127.0.0.1 to accept only
+     *            local clients
+     * @param port The TCP port
+     */
+    public void start (final String address, final int port)
+    {
+        this.stop ();
+
+        final ServerSocketChannel channel;
+        try
+        {
+            channel = ServerSocketChannel.open ();
+            channel.bind (new InetSocketAddress (address, port));
+        }
+        catch (final IOException ex)
+        {
+            this.model.addLogMessage ("Could not start frame stream server on " + address + ":" + port + ": " + ex.getLocalizedMessage ());
+            return;
+        }
+
+        this.serverChannel = channel;
+        this.model.addLogMessage ("Streaming frames on " + address + ":" + port + ".");
+
+        new Thread ( () -> {
+            synchronized (this.serverLock)
+            {
+                while (channel.isOpen ())
+                {
+                    try
+                    {
+                        this.accept (channel.accept ());
+                    }
+                    catch (final AsynchronousCloseException ex)
+                    {
+                        // Stopped
+                    }
+                    catch (final IOException ex)
+                    {
+                        if (channel.isOpen ())
+                            this.model.addLogMessage (ex.getLocalizedMessage ());
+                    }
+                }
+            }
+        }, "Frame Stream Server").start ();
+    }
+
+
+    /**
+     * Stop the server and disconnect all clients.
+     */
+    public void stop ()
+    {
+        final ServerSocketChannel channel = this.serverChannel;
+        if (channel == null)
+            return;
+        this.serverChannel = null;
+
+        try
+        {
+            channel.close ();
+        }
+        catch (final IOException ex)
+        {
+            this.model.addLogMessage (ex.getLocalizedMessage ());
+        }
+
+        // Wait till thread has stopped
+        synchronized (this.serverLock)
+        {
+            for (final Client client: this.clients)
+                client.stop ();
+            this.clients.clear ();
+        }
+    }
+
+
+    /**
+     * Get the number of connected clients.
+     *
+     * @return The number
+     */
+    public int getClientCount ()
+    {
+        return this.clients.size ();
+    }
+
+
+    /**
+     * Offers the current image of the virtual display to the clients. The image is only copied if
+     * a client is connected and the sequence differs from the one of the previous call. Must
+     * always be called from the same thread.
+     *
+     * @param image The image of the virtual display
+     * @param sequence The sequence number of the image, see
+     *            {@link VirtualDisplay#getImageSequence()}
+     */
+    public void publish (final BufferedImage image, final long sequence)
+    {
+        if (this.clients.isEmpty ())
+            return;
+
+        synchronized (this.frameLock)
+        {
+            if (sequence == this.latestSequence)
+                return;
+            FrameCodec.capture (image, this.latestPixels);
+            this.latestSequence = sequence;
+            this.latestTime = FrameCodec.currentTimeMicros ();
+        }
+
+        for (final Client client: this.clients)
+            client.signal ();
+    }
+
+
+    /**
+     * Starts the sender thread for a new client.
+     *
+     * @param channel The channel of the client
+     * @throws IOException Could not configure the channel
+     */
+    private void accept (final SocketChannel channel) throws IOException
+    {
+        if (this.clients.size () >= MAX_CLIENTS)
+        {
+            this.model.addLogMessage ("Frame stream client rejected, already " + MAX_CLIENTS + " clients connected.");
+            channel.close ();
+            return;
+        }
+
+        channel.setOption (StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+        final Client client = new Client (channel);
+        this.clients.add (client);
+        this.clientCounter++;
+        client.thread = new Thread (client, "Frame Stream Client " + this.clientCounter);
+        client.thread.start ();
+
+        // Capture the current frame with the next call to publish even if it did not change
+        synchronized (this.frameLock)
+        {
+            this.latestSequence = -1;
+        }
+        this.model.addLogMessage ("Frame stream client connected: " + channel.getRemoteAddress ());
+    }
+
+
+    /** Sends the latest frame to one client whenever it is signaled. */
+    private final class Client implements Runnable
+    {
+        private final SocketChannel channel;
+        private final FrameCodec    codec            = new FrameCodec ();
+        private final ByteBuffer    buffer           = ByteBuffer.allocate (FrameCodec.MAX_MESSAGE_SIZE);
+        private final ByteBuffer    acknowledgements = ByteBuffer.allocate (FrameCodec.MAX_UNACKNOWLEDGED);
+        private short []            previous         = new short [FrameCodec.PIXELS];
+        private short []            current          = new short [FrameCodec.PIXELS];
+        private final AtomicBoolean isPending        = new AtomicBoolean ();
+        private volatile boolean    isRunning        = true;
+        private Thread              thread;
+
+
+        /**
+         * Constructor.
+         *
+         * @param channel The channel of the client
+         */
+        Client (final SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void run ()
+        {
+            long sentSequence = -1;
+            long sent = 0;
+            long skipped = 0;
+            int unacknowledged = 0;
+            try
+            {
+                while (this.isRunning)
+                {
+                    // Several signals while sending result in only one more frame
+                    if (!this.isPending.getAndSet (false))
+                    {
+                        LockSupport.park (this);
+                        continue;
+                    }
+
+                    // Wait for the client before taking the latest frame
+                    while (unacknowledged >= FrameCodec.MAX_UNACKNOWLEDGED)
+                    {
+                        this.acknowledgements.clear ();
+                        if (this.channel.read (this.acknowledgements) < 0)
+                            return;
+                        unacknowledged -= this.acknowledgements.position ();
+                    }
+
+                    final long sequence;
+                    final long time;
+                    synchronized (FrameStreamServer.this.frameLock)
+                    {
+                        sequence = FrameStreamServer.this.latestSequence;
+                        if (sequence == sentSequence || sequence < 0)
+                            continue;
+                        time = FrameStreamServer.this.latestTime;
+                        System.arraycopy (FrameStreamServer.this.latestPixels, 0, this.current, 0, FrameCodec.PIXELS);
+                    }
+
+                    this.buffer.clear ();
+                    if (sentSequence < 0)
+                        this.codec.encodeKeyframe (this.current, sequence, time, this.buffer);
+                    else
+                    {
+                        this.codec.encodeDelta (this.previous, this.current, sequence, time, this.buffer);
+                        if (sequence > sentSequence + 1)
+                            skipped += sequence - sentSequence - 1;
+                    }
+                    this.buffer.flip ();
+                    while (this.buffer.hasRemaining ())
+                        this.channel.write (this.buffer);
+
+                    final short [] swap = this.previous;
+                    this.previous = this.current;
+                    this.current = swap;
+                    sentSequence = sequence;
+                    sent++;
+                    unacknowledged++;
+                }
+            }
+            catch (final IOException ex)
+            {
+                // Client has disconnected or the server was stopped
+            }
+            finally
+            {
+                this.close ();
+                FrameStreamServer.this.clients.remove (this);
+                FrameStreamServer.this.model.addLogMessage ("Frame stream client disconnected after " + sent + " frames, " + skipped + " frames skipped.");
+            }
+        }
+
+
+        /**
+         * Wake up the sender to send the latest frame.
+         */
+        void signal ()
+        {
+            this.isPending.set (true);
+            LockSupport.unpark (this.thread);
+        }
+
+
+        /**
+         * Stops the thread and closes the connection.
+         */
+        void stop ()
+        {
+            this.isRunning = false;
+            this.close ();
+            LockSupport.unpark (this.thread);
+            try
+            {
+                this.thread.join ();
+            }
+            catch (final InterruptedException ex)
+            {
+                Thread.currentThread ().interrupt ();
+            }
+        }
+
+
+        /**
+         * Closes the connection.
+         */
+        private void close ()
+        {
+            try
+            {
+                this.channel.close ();
+            }
+            catch (final IOException ex)
+            {
+                // Ignore, the connection is gone anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package push22bitwig.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+
+/**
+ * A thread safe cache with a maximum total weight. If a new value exceeds the maximum weight the
+ * least recently used values are evicted. A value is loaded only once, even if several threads
+ * request the same missing key concurrently (the other threads wait for the first one). Counts
+ * hits, misses and evictions.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the values
+ */
+public class BoundedCache<K, V>
+{
+    private final Map<K, Entry<V>>  entries     = new ConcurrentHashMap<> ();
+    private final long              maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final AtomicLong        clock       = new AtomicLong ();
+    private final AtomicLong        totalWeight = new AtomicLong ();
+    private final LongAdder         hits        = new LongAdder ();
+    private final LongAdder         misses      = new LongAdder ();
+    private final LongAdder         evictions   = new LongAdder ();
+    private final Object            evictLock   = new Object ();
+
+
+    /**
+     * Loads the value for a key.
+     *
+     * @param <K> The type of the keys
+     * @param <V> The type of the values
+     */
+    @FunctionalInterface
+    public interface Loader<K, V>
+    {
+        /**
+         * Load the value.
+         *
+         * @param key The key of the value
+         * @return The value, must not be null
+         * @throws IOException Could not load the value
+         */
+        V load (K key) throws IOException;
+    }
+
+
+    /**
+     * Constructor. Each value has a weight of 1, therefore the maximum weight is the maximum number
+     * of values.
+     *
+     * @param maxSize The maximum number of values
+     */
+    public BoundedCache (final long maxSize)
+    {
+        this (maxSize, value -> 1);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param maxWeight The maximum sum of the weights of all values
+     * @param weigher Calculates the weight of a value
+     */
+    public BoundedCache (final long maxWeight, final ToLongFunction<V> weigher)
+    {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+
+    /**
+     * Get the value for a key. If it is not in the cache it is loaded. Blocks while the value is
+     * loaded by this or another thread.
+     *
+     * @param key The key
+     * @param loader Loads the value if it is missing
+     * @return The value
+     * @throws IOException Could not load the value
+     */
+    public V get (final K key, final Loader<K, V> loader) throws IOException
+    {
+        Entry<V> entry = this.entries.get (key);
+        if (entry == null)
+        {
+            final Entry<V> newEntry = new Entry<> ();
+            entry = this.entries.putIfAbsent (key, newEntry);
+            if (entry == null)
+            {
+                this.misses.increment ();
+                this.load (key, newEntry, loader);
+                return newEntry.future.join ();
+            }
+        }
+
+        this.hits.increment ();
+        entry.lastAccess = this.clock.incrementAndGet ();
+        try
+        {
+            return entry.future.join ();
+        }
+        catch (final CompletionException ex)
+        {
+            final Throwable cause = ex.getCause ();
+            throw cause instanceof UncheckedIOException ? ((UncheckedIOException) cause).getCause () : new IOException (cause);
+        }
+    }
+
+
+    /**
+     * Get the value for a key if it is in the cache and completely loaded. A missing value is not
+     * counted as a miss, since the caller typically loads it with {@link #get(Object, Loader)}
+     * afterwards.
+     *
+     * @param key The key
+     * @return The value or null
+     */
+    public V getIfPresent (final K key)
+    {
+        final Entry<V> entry = this.entries.get (key);
+        if (entry == null || !entry.future.isDone () || entry.future.isCompletedExceptionally ())
+            return null;
+        this.hits.increment ();
+        entry.lastAccess = this.clock.incrementAndGet ();
+        return entry.future.join ();
+    }
+
+
+    /**
+     * Removes the values of all keys which match the given filter.
+     *
+     * @param filter Returns true for the keys to remove
+     */
+    public void removeIf (final Predicate<? super K> filter)
+    {
+        synchronized (this.evictLock)
+        {
+            final Iterator<Map.Entry<K, Entry<V>>> iterator = this.entries.entrySet ().iterator ();
+            while (iterator.hasNext ())
+            {
+                final Map.Entry<K, Entry<V>> e = iterator.next ();
+                if (!e.getValue ().future.isDone () || !filter.test (e.getKey ()))
+                    continue;
+                iterator.remove ();
+                this.totalWeight.addAndGet (-e.getValue ().weight);
+            }
+        }
+    }
+
+
+    /**
+     * Removes all values.
+     */
+    public void clear ()
+    {
+        synchronized (this.evictLock)
+        {
+            this.entries.clear ();
+            this.totalWeight.set (0);
+        }
+    }
+
+
+    /**
+     * Get the number of values in the cache.
+     *
+     * @return The number of values
+     */
+    public int size ()
+    {
+        return this.entries.size ();
+    }
+
+
+    /**
+     * Get the sum of the weights of all values in the cache.
+     *
+     * @return The weight
+     */
+    public long getWeight ()
+    {
+        return this.totalWeight.get ();
+    }
+
+
+    /**
+     * Get the number of requests which found the value in the cache.
+     *
+     * @return The number of hits
+     */
+    public long getHitCount ()
+    {
+        return this.hits.sum ();
+    }
+
+
+    /**
+     * Get the number of requests which did not find the value in the cache.
+     *
+     * @return The number of misses
+     */
+    public long getMissCount ()
+    {
+        return this.misses.sum ();
+    }
+
+
+    /**
+     * Get the number of values which were removed to stay below the maximum weight.
+     *
+     * @return The number of evictions
+     */
+    public long getEvictionCount ()
+    {
+        return this.evictions.sum ();
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString ()
+    {
+        final long hitCount = this.getHitCount ();
+        final long requests = hitCount + this.getMissCount ();
+        final double hitRate = requests == 0 ? 0 : 100.0 * hitCount / requests;
+        return String.format ("size=%d weight=%d/%d hits=%d misses=%d evictions=%d hitRate=%.1f%%", Integer.valueOf (this.size ()), Long.valueOf (this.getWeight ()), Long.valueOf (this.maxWeight), Long.valueOf (hitCount), Long.valueOf (this.getMissCount ()), Long.valueOf (this.getEvictionCount ()), Double.valueOf (hitRate));
+    }
+
+
+    /**
+     * Loads the value of a new entry. If loading fails, the entry is removed again so that the
+     * next request tries again.
+     *
+     * @param key The key
+     * @param entry The new entry
+     * @param loader Loads the value
+     * @throws IOException Could not load the value
+     */
+    private void load (final K key, final Entry<V> entry, final Loader<K, V> loader) throws IOException
+    {
+        final V value;
+        try
+        {
+            value = loader.load (key);
+        }
+        catch (final IOException | RuntimeException ex)
+        {
+            this.entries.remove (key, entry);
+            entry.future.completeExceptionally (ex instanceof IOException ? new UncheckedIOException ((IOException) ex) : ex);
+            throw ex;
+        }
+
+        entry.weight = this.weigher.applyAsLong (value);
+        entry.lastAccess = this.clock.incrementAndGet ();
+
+        synchronized (this.evictLock)
+        {
+            // Complete while holding the lock, only completed entries are removed and subtract
+            // their weight
+            entry.future.complete (value);
+
+            // The cache might have been cleared in the meantime
+            if (this.entries.get (key) != entry)
+                return;
+            if (this.totalWeight.addAndGet (entry.weight) > this.maxWeight)
+                this.evict ();
+        }
+    }
+
+
+    /**
+     * Removes the least recently used values until the total weight is below the maximum. Values
+     * which are still loading are not evicted. Must be called while holding the eviction lock.
+     */
+    private void evict ()
+    {
+        while (this.totalWeight.get () > this.maxWeight)
+        {
+            Map.Entry<K, Entry<V>> oldest = null;
+            for (final Map.Entry<K, Entry<V>> e: this.entries.entrySet ())
+            {
+                final Entry<V> entry = e.getValue ();
+                if (entry.future.isDone () && (oldest == null || entry.lastAccess < oldest.getValue ().lastAccess))
+                    oldest = e;
+            }
+            if (oldest == null)
+                return;
+            if (this.entries.remove (oldest.getKey (), oldest.getValue ()))
+            {
+                this.totalWeight.addAndGet (-oldest.getValue ().weight);
+                this.evictions.increment ();
+            }
+        }
+    }
+
+
+    /**
+     * An entry of the cache.
+     *
+     * @param <V> The type of the value
+     */
+    private static class Entry<V>
+    {
+        final CompletableFuture<V> future = new CompletableFuture<> ();
+        volatile long              lastAccess;
+        long                       weight;
+    }
+}
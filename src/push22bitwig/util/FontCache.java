@@ -1,13 +1,19 @@
 package push22bitwig.util;
 
 import java.awt.Font;
+import java.awt.Graphics2D;
 import java.awt.geom.AffineTransform;
-import java.util.HashMap;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 
 /**
- * Caches the pixel scaled variants of a given (base) font.
+ * Caches the pixel scaled variants of a given (base) font. The scaled fonts are stored in a table
+ * indexed by the pixel size, which is read without locking. The hits and misses are counted over
+ * all instances, since a new cache is created when the font is changed.
  *
  * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
  *
@@ -15,8 +21,17 @@ import java.util.Map;
  */
 public class FontCache
 {
-    private Font              baseFont;
-    private Map<Double, Font> scaledFonts = new HashMap<Double, Font> ();
+    /** Fonts up to this pixel size are cached, the display is only 160 pixels high. */
+    private static final int                 MAX_CACHED_SIZE = 160;
+
+    /** The ASCII characters which are rendered when prewarming. */
+    private static final String              ASCII_GLYPHS    = createAsciiGlyphs ();
+
+    private static final LongAdder           HITS            = new LongAdder ();
+    private static final LongAdder           MISSES          = new LongAdder ();
+
+    private final Font                       baseFont;
+    private final AtomicReferenceArray<Font> scaledFonts     = new AtomicReferenceArray<> (MAX_CACHED_SIZE + 1);
 
 
     /**
@@ -72,18 +87,112 @@ public class FontCache
      */
     public Font getFont (final int size)
     {
-        Font font = null;
-        final double scale = (double) size / (double) this.baseFont.getSize ();
-        final Double s = Double.valueOf (scale);
-        synchronized (this.scaledFonts)
+        if (size < 0 || size > MAX_CACHED_SIZE)
         {
-            font = this.scaledFonts.get (s);
-            if (font == null)
-            {
-                font = this.baseFont.deriveFont (AffineTransform.getScaleInstance (scale, scale));
-                this.scaledFonts.put (s, font);
-            }
+            MISSES.increment ();
+            return this.createFont (size);
         }
-        return font;
+
+        final Font font = this.scaledFonts.get (size);
+        if (font != null)
+        {
+            HITS.increment ();
+            return font;
+        }
+        MISSES.increment ();
+
+        // If another thread created the font in the meantime, use that one
+        final Font newFont = this.createFont (size);
+        return this.scaledFonts.compareAndSet (size, null, newFont) ? newFont : this.scaledFonts.get (size);
+    }
+
+
+    /**
+     * Get the number of requested fonts which were found in a cache.
+     *
+     * @return The number of hits
+     */
+    public static long getHitCount ()
+    {
+        return HITS.sum ();
+    }
+
+
+    /**
+     * Get the number of requested fonts which had to be created.
+     *
+     * @return The number of misses
+     */
+    public static long getMissCount ()
+    {
+        return MISSES.sum ();
+    }
+
+
+    /**
+     * Get the pixel sizes which have been requested from this cache.
+     *
+     * @return The sizes
+     */
+    public int [] getUsedSizes ()
+    {
+        int count = 0;
+        final int [] sizes = new int [MAX_CACHED_SIZE + 1];
+        for (int size = 0; size <= MAX_CACHED_SIZE; size++)
+        {
+            if (this.scaledFonts.get (size) != null)
+                sizes[count++] = size;
+        }
+        return Arrays.copyOf (sizes, count);
+    }
+
+
+    /**
+     * Creates the scaled fonts for the given sizes and renders the ASCII characters with them, which
+     * loads the font file and fills the glyph caches of Java2D. This takes some time, therefore it
+     * should be called before a font is used for drawing and not on the rendering thread.
+     *
+     * @param sizes The pixel sizes to prewarm
+     * @param renderingHints The rendering hints with which the font is used for drawing, the glyph
+     *            caches depend on them
+     */
+    public void prewarm (final int [] sizes, final Map<?, ?> renderingHints)
+    {
+        final BufferedImage image = new BufferedImage (1, 1, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D gc = image.createGraphics ();
+        gc.setRenderingHints (renderingHints);
+        for (final int size: sizes)
+        {
+            gc.setFont (this.getFont (size));
+            gc.drawString (ASCII_GLYPHS, 0, size);
+        }
+        gc.dispose ();
+    }
+
+
+    /**
+     * Creates the scaled font.
+     *
+     * @param size The pixel size of the font
+     * @return The scaled font
+     */
+    private Font createFont (final int size)
+    {
+        final double scale = (double) size / (double) this.baseFont.getSize ();
+        return this.baseFont.deriveFont (AffineTransform.getScaleInstance (scale, scale));
+    }
+
+
+    /**
+     * Creates a string with the printable ASCII characters.
+     *
+     * @return The string
+     */
+    private static String createAsciiGlyphs ()
+    {
+        final StringBuilder sb = new StringBuilder ();
+        for (char c = 32; c < 127; c++)
+            sb.append (c);
+        return sb.toString ();
     }
 }
@@ -0,0 +1,93 @@
+package push22bitwig.util;
+
+/**
+ * A small pool of strings which are looked up by their characters. If the characters of a
+ * previously created string are parsed again, the same string instance is returned and no new
+ * string is created. A string is stored in one of 4 slots following its hash, if all of them are
+ * used one of them is replaced. Not thread safe.
+ *
+ * Licensed under LGPLv3 - http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * @author J&uuml;rgen Mo&szlig;graber
+ */
+public class StringPool
+{
+    private static final int WAYS = 4;
+
+    private final String []  strings;
+    private final int        mask;
+    private int              victim;
+
+
+    /**
+     * Constructor.
+     *
+     * @param size The number of slots, rounded up to the next power of 2
+     */
+    public StringPool (final int size)
+    {
+        final int slots = Math.max (WAYS, Integer.highestOneBit (Math.max (1, size - 1)) << 1);
+        this.strings = new String [slots];
+        this.mask = slots - 1;
+    }
+
+
+    /**
+     * Get the string with the given characters.
+     *
+     * @param chars The characters of the string
+     * @param length The number of characters to use from the array
+     * @return The pooled or a newly created string
+     */
+    public String get (final char [] chars, final int length)
+    {
+        int hash = 0;
+        for (int i = 0; i < length; i++)
+            hash = 31 * hash + chars[i];
+        final int slot = hash ^ hash >>> 16;
+
+        int free = -1;
+        for (int i = 0; i < WAYS; i++)
+        {
+            final int index = slot + i & this.mask;
+            final String string = this.strings[index];
+            if (string == null)
+            {
+                if (free < 0)
+                    free = index;
+            }
+            else if (equals (string, chars, length))
+                return string;
+        }
+
+        if (free < 0)
+        {
+            free = slot + this.victim & this.mask;
+            this.victim = (this.victim + 1) % WAYS;
+        }
+        final String created = new String (chars, 0, length);
+        this.strings[free] = created;
+        return created;
+    }
+
+
+    /**
+     * Compares a string with the given characters.
+     *
+     * @param string The string
+     * @param chars The characters
+     * @param length The number of characters to use from the array
+     * @return True if the string consists of the same characters
+     */
+    private static boolean equals (final String string, final char [] chars, final int length)
+    {
+        if (string.length () != length)
+            return false;
+        for (int i = 0; i < length; i++)
+        {
+            if (string.charAt (i) != chars[i])
+                return false;
+        }
+        return true;
+    }
+}